@@ -0,0 +1,62 @@
+package aqua.blatt1.broker;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The operations of the broker on its ClientCollection, in a collection whose first percent of tanks has expired.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ClientCollectionHotPath {
+
+    @Param({"1000", "100000"})
+    private int tanks;
+
+    private final InetSocketAddress joining = InetSocketAddress.createUnresolved("joining", 1024);
+    private final Random random = new Random(42);
+    private ClientCollection<InetSocketAddress> clients;
+    private List<String> ids;
+    private long expiredBefore;
+
+    @Setup
+    public void fill() throws InterruptedException {
+        clients = new ClientCollection<>();
+        ids = new ArrayList<>(tanks);
+        for (int i = 0; i < tanks; i++) {
+            if (i == tanks / 100) {
+                Thread.sleep(2);
+                expiredBefore = System.currentTimeMillis();
+            }
+            ids.add("tank" + i);
+            clients.add("tank" + i, InetSocketAddress.createUnresolved("tank" + i, 1024 + i % 60000));
+        }
+    }
+
+    @Benchmark
+    public Object registerDeregister() {
+        clients.add("joining", joining);
+        return clients.remove("joining");
+    }
+
+    @Benchmark
+    public String neighbors() {
+        final String id = ids.get(random.nextInt(tanks));
+        return clients.getLeftNeighorOf(id) != clients.getRightNeighorOf(id) ? id : null;
+    }
+
+    @Benchmark
+    public Object collectToClean() {
+        return clients.collectToClean(expiredBefore);
+    }
+}
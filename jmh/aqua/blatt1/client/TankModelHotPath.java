@@ -0,0 +1,48 @@
+package aqua.blatt1.client;
+
+import aqua.blatt7.endpoint.OutboxEndpoint;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * One tick of a registered tank. No tank holds the token, so every fish stays and turns around at the edges.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class TankModelHotPath {
+
+    @Param({"100", "10000", "100000"})
+    private int fish;
+
+    private ScheduledExecutorService scheduler;
+    private TankModel tankModel;
+
+    @Setup
+    public void register() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        final ClientCommunicator communicator = new ClientCommunicator(new OutboxEndpoint());
+        tankModel = new TankModel(communicator.newClientForwarder(), fish, TankModel.TICK_MILLIS, scheduler);
+        tankModel.onRegistration("tank1", new InetSocketAddress("127.0.0.1", 50123),
+                new InetSocketAddress("127.0.0.1", 50124), Integer.MAX_VALUE);
+    }
+
+    @TearDown
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public TankModel updateFishies() {
+        tankModel.update();
+        return tankModel;
+    }
+}
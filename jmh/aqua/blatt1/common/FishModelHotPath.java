@@ -0,0 +1,29 @@
+package aqua.blatt1.common;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * One step of a single fish.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class FishModelHotPath {
+
+    private final FishModel fish = new FishModel("fish1@tank1", 300, 100, Direction.RIGHT);
+
+    @Benchmark
+    public FishModel update() {
+        fish.update();
+        // keeps the fish in the tank
+        if (fish.hitsEdge())
+            fish.reverse();
+        return fish;
+    }
+}
@@ -0,0 +1,53 @@
+package aqua.blatt1.common.codec;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Round trips of every message type through Java serialization and through the WireCodec.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class SerializationHotPath {
+
+    // the simple class names of MessageSamples.all()
+    @Param({"RegisterRequest", "RegisterResponse", "DeregisterRequest", "HandoffRequest", "NeighborUpdate", "Token",
+            "SnapshotMarker", "SnapshotResult", "LocationRequest", "LocationUpdate", "NameResolutionRequest",
+            "NameResolutionResponse", "KeyExchangeMessage", "SessionKeyExchangeMessage", "PoisonPill", "byte[]",
+            "LeaseRenewal", "HandoffBatch", "EdgePermit"})
+    private String message;
+
+    private Serializable sample;
+
+    @Setup
+    public void selectSample() throws NoSuchAlgorithmException {
+        sample = MessageSamples.all().stream()
+                .filter(candidate -> candidate.getClass().getSimpleName().equals(message))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No sample of " + message));
+    }
+
+    @Benchmark
+    public Object java() throws IOException, ClassNotFoundException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream os = new ObjectOutputStream(bytes)) {
+            os.writeObject(sample);
+        }
+        try (ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return is.readObject();
+        }
+    }
+
+    @Benchmark
+    public Serializable wire() throws IOException {
+        return WireCodec.decode(WireCodec.encode(sample));
+    }
+}
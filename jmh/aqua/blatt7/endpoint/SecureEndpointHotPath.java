@@ -0,0 +1,75 @@
+package aqua.blatt7.endpoint;
+
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+import aqua.blatt1.common.msgtypes.HandoffRequest;
+import messaging.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Encrypting a handoff in SecureEndpoint.send and decrypting it in SecureEndpoint.accept, after the key exchange.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class SecureEndpointHotPath {
+
+    private static final InetSocketAddress ALICE = new InetSocketAddress("127.0.0.1", 50123);
+    private static final InetSocketAddress BOB = new InetSocketAddress("127.0.0.1", 50124);
+
+    @Param({"RSA", "SESSION"})
+    private SecureEndpoint.Mode mode;
+
+    private final OutboxEndpoint aliceOut = new OutboxEndpoint();
+    private final OutboxEndpoint bobOut = new OutboxEndpoint();
+    private final HandoffRequest message =
+            new HandoffRequest(new FishModel("fish1@tank1", 42, 42, Direction.LEFT));
+    private SecureEndpoint alice;
+    private SecureEndpoint bob;
+    private Message encrypted;
+
+    @Setup
+    public void exchangeKeys() {
+        final int keySize = SecureEndpoint.keySize(mode);
+        alice = new SecureEndpoint(aliceOut, mode, KeyPairs.generate(keySize));
+        bob = new SecureEndpoint(bobOut, mode, KeyPairs.generate(keySize));
+
+        alice.send(BOB, message);
+        while (!aliceOut.outbox.isEmpty() || !bobOut.outbox.isEmpty()) {
+            for (Serializable payload; (payload = aliceOut.outbox.poll()) != null; )
+                bob.accept(new Message(payload, ALICE));
+            for (Serializable payload; (payload = bobOut.outbox.poll()) != null; )
+                alice.accept(new Message(payload, BOB));
+        }
+
+        alice.send(BOB, message);
+        encrypted = new Message(aliceOut.outbox.poll(), ALICE);
+        if (bob.accept(encrypted) == null)
+            throw new IllegalStateException("Key exchange did not complete in mode " + mode);
+    }
+
+    @TearDown
+    public void close() {
+        alice.close();
+        bob.close();
+    }
+
+    @Benchmark
+    public Serializable send() {
+        alice.send(BOB, message);
+        return aliceOut.outbox.poll();
+    }
+
+    @Benchmark
+    public Message decrypt() {
+        return bob.accept(encrypted);
+    }
+}
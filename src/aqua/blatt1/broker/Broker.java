@@ -9,22 +9,32 @@ import messaging.Message;
 import java.io.Serializable;
 import java.net.InetSocketAddress;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Membership changes are serialized by clientLock. Each one updates the ring and the name table and queues its
+ * neighbor updates in a single critical section, and the queue is sent in order after the lock is released, so
+ * tanks see the updates of concurrent changes in the order the changes were made, while encrypting them never
+ * holds up the next change. Name lookups read the concurrent name table and never wait for the lock.
+ */
 
 public class Broker {
 
     private static final int THREAD_POOL_SIZE = 10;
+    private static final int QUEUE_CAPACITY = 1000;
     private static final int PORT = 4711;
     private static final Endpoint ENDPOINT = new SecureEndpoint(PORT);
     private static final String ID_PREFIX = "tank";
     final int leaseDuration = 10000; // 10 seconds
+    final int cleanupInterval = leaseDuration / 10;
     private final ClientCollection<InetSocketAddress> clients = new ClientCollection<>();
-    private final ReadWriteLock clientLock = new ReentrantReadWriteLock();
-    private final Map<String, InetSocketAddress> nameResolutionTable = new HashMap<>();
-    private final Timer timer = new Timer();
+    private final Lock clientLock = new ReentrantLock();
+    private final Queue<Outgoing> outbox = new ConcurrentLinkedQueue<>();
+    private final Lock sendLock = new ReentrantLock();
+    private final Map<String, InetSocketAddress> nameResolutionTable = new ConcurrentHashMap<>();
+    private int tankCounter = 0;
     private volatile boolean stopRequested = false;
 
     public static void main(String[] args) {
@@ -32,32 +42,42 @@ public class Broker {
     }
 
     private void broker() {
-        var executor = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
-
-        final boolean[] addCleanupTask = {true};
+        // a full queue makes the receiving thread handle the message itself, which throttles receiving
+        var executor = new ThreadPoolExecutor(THREAD_POOL_SIZE, THREAD_POOL_SIZE, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), new ThreadPoolExecutor.CallerRunsPolicy());
+        var scheduler = Executors.newSingleThreadScheduledExecutor();
+        // a cleanup pass only looks at expired clients, so it can run often and evict close to the deadline
+        scheduler.scheduleAtFixedRate(new CleanupTask(), 0, cleanupInterval, TimeUnit.MILLISECONDS);
 
         while (!stopRequested) {
-            final Message msg = ENDPOINT.nonBlockingReceive();
-            if (msg != null)
-                executor.execute(new BrokerTask(msg));
-            if (addCleanupTask[0]) {
-                executor.execute(new CleanupTask(executor));
-                addCleanupTask[0] = false;
-                timer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        addCleanupTask[0] = true;
-                    }
-                }, leaseDuration * 2);
+            // a message which can not be received or handled must not stop the broker
+            try {
+                final Message msg = ENDPOINT.blockingReceive();
+                if (MsgType.valueOf(msg.getPayload()) == MsgType.POISON)
+                    stopRequested = true;
+                else
+                    executor.execute(new BrokerTask(msg));
+            } catch (RuntimeException e) {
+                System.err.println("Dropped message: " + e);
             }
         }
+
+        scheduler.shutdownNow();
         executor.shutdown();
+        try {
+            if (!executor.awaitTermination(leaseDuration, TimeUnit.MILLISECONDS))
+                System.err.println("Broker tasks did not finish in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("Broker stopped.");
     }
 
     private enum MsgType {
         DEREGISTER,
         HANDOFF,
         REGISTER,
+        RENEW,
         POISON,
         NAMEREQUEST,
         UNKNOWN;
@@ -66,34 +86,74 @@ public class Broker {
             if (classType instanceof DeregisterRequest) return DEREGISTER;
             if (classType instanceof HandoffRequest) return HANDOFF;
             if (classType instanceof RegisterRequest) return REGISTER;
+            if (classType instanceof LeaseRenewal) return RENEW;
             if (classType instanceof PoisonPill) return POISON;
             if (classType instanceof NameResolutionRequest) return NAMEREQUEST;
             return UNKNOWN;
         }
     }
 
-    public class CleanupTask implements Runnable {
-
-        ExecutorService executor;
+    /*
+     * Queues a message of a membership change. Must be called while holding clientLock, and flush() after releasing
+     * it.
+     */
+    private void queue(InetSocketAddress receiver, Serializable payload) {
+        outbox.add(new Outgoing(receiver, payload));
+    }
 
-        public CleanupTask(ExecutorService executor) {
-            this.executor = executor;
+    /*
+     * Sends the queued messages, one thread at a time in the order they were queued.
+     */
+    private void flush() {
+        sendLock.lock();
+        try {
+            for (Outgoing outgoing; (outgoing = outbox.poll()) != null; ) {
+                try {
+                    ENDPOINT.send(outgoing.receiver(), outgoing.payload());
+                } catch (RuntimeException e) {
+                    System.err.println("Could not send to " + outgoing.receiver() + ": " + e);
+                }
+            }
+        } finally {
+            sendLock.unlock();
         }
+    }
+
+    /*
+     * Removes a client and its name and tells its neighbors. Must be called while holding clientLock.
+     */
+    private void removeClient(String clientId) {
+        final InetSocketAddress leftNeighbor = clients.getLeftNeighorOf(clientId);
+        final InetSocketAddress rightNeighbor = clients.getRightNeighorOf(clientId);
+        clients.remove(clientId);
+        nameResolutionTable.remove(clientId);
+
+        queue(leftNeighbor, new NeighborUpdate(null, rightNeighbor));
+        queue(rightNeighbor, new NeighborUpdate(leftNeighbor, null));
+    }
+
+    public class CleanupTask implements Runnable {
 
         @Override
         public void run() {
-            cleanup();
+            // an exception would cancel all further cleanups
+            try {
+                cleanup();
+            } catch (RuntimeException e) {
+                System.err.println("Cleanup failed: " + e);
+            }
         }
 
         private void cleanup() {
-            clientLock.readLock().lock();
-            List<String> toClean = clients.collectToClean(System.currentTimeMillis() - leaseDuration);
-            clientLock.readLock().unlock();
-            toClean.forEach(id -> executor.execute(
-                    new BrokerTask(
-                            new Message(new DeregisterRequest(id, false), nameResolutionTable.get(id)
-                            )
-                    )));
+            // collecting and removing in one critical section keeps a lease renewed in between alive
+            clientLock.lock();
+            try {
+                for (String id : clients.collectToClean(System.currentTimeMillis() - leaseDuration))
+                    removeClient(id);
+            } finally {
+                clientLock.unlock();
+            }
+            flush();
         }
     }
 
@@ -109,9 +169,9 @@ public class Broker {
         public void run() {
             switch (MsgType.valueOf(msg.getPayload())) {
                 case REGISTER -> register(msg.getSender());
+                case RENEW -> renew(((LeaseRenewal) msg.getPayload()).id(), msg.getSender());
                 case DEREGISTER ->
                         deregister(((DeregisterRequest) msg.getPayload()).id(), ((DeregisterRequest) msg.getPayload()).hadToken());
-                case POISON -> stopRequested = true;
                 case NAMEREQUEST -> {
                     final NameResolutionRequest request = (NameResolutionRequest) msg.getPayload();
                     ENDPOINT.send(
@@ -125,58 +185,72 @@ public class Broker {
         }
 
         private void register(InetSocketAddress client) {
-            clientLock.readLock().lock();
-            final int index = clients.indexOf(client) != -1 ? clients.indexOf(client) + 1 : clients.size() + 1;
-            clientLock.readLock().unlock();
-            final String id = ID_PREFIX + index;
-
-            clientLock.writeLock().lock();
-            int ind = clients.indexOf(id);
-            if (ind != -1)
-                clients.updateTimestamp(ind, id);
-            else
-                clients.add(id, client);
-            clientLock.writeLock().unlock();
-
-            clientLock.readLock().lock();
-            final InetSocketAddress leftNeighbor = clients.getLeftNeighorOf(clients.indexOf(client));
-            final InetSocketAddress rightNeighbor = clients.getRightNeighorOf(clients.indexOf(client));
-            clientLock.readLock().unlock();
-
-            ENDPOINT.send(client, new RegisterResponse(id, new NeighborUpdate(leftNeighbor, rightNeighbor), leaseDuration));
-            nameResolutionTable.put(id, client);
-            ENDPOINT.send(leftNeighbor, new NeighborUpdate(null, client));
-            ENDPOINT.send(rightNeighbor, new NeighborUpdate(client, null));
-
-            if (index == 1)
-                ENDPOINT.send(client, new Token());
-        }
+            clientLock.lock();
+            try {
+                final boolean firstClient = clients.size() == 0;
+                final String knownId = clients.idOf(client);
+                final String id;
+                if (knownId == null) {
+                    id = ID_PREFIX + (++tankCounter);
+                    clients.add(id, client);
+                    nameResolutionTable.put(id, client);
+                } else {
+                    id = knownId;
+                    clients.updateTimestamp(id);
+                }
+                final InetSocketAddress leftNeighbor = clients.getLeftNeighorOf(id);
+                final InetSocketAddress rightNeighbor = clients.getRightNeighorOf(id);
 
-        private void deregister(String clientId, boolean hadToken) {
-            clientLock.readLock().lock();
-            final int index = clients.indexOf(clientId);
-            if (index == -1) {
-                System.err.println("Client not registered...");
-                clientLock.readLock().unlock();
-                return;
-            }
+                queue(client, new RegisterResponse(id, new NeighborUpdate(leftNeighbor, rightNeighbor), leaseDuration));
+                if (knownId != null)
+                    return;
 
-            final InetSocketAddress leftNeighbor = clients.getLeftNeighorOf(index);
-            final InetSocketAddress rightNeighbor = clients.getRightNeighorOf(index);
-            clientLock.readLock().unlock();
+                queue(leftNeighbor, new NeighborUpdate(null, client));
+                queue(rightNeighbor, new NeighborUpdate(client, null));
+                if (firstClient)
+                    queue(client, new Token());
+            } finally {
+                clientLock.unlock();
+                flush();
+            }
+        }
 
-            clientLock.writeLock().lock();
-            clients.remove(index);
-            clientLock.writeLock().unlock();
+        /*
+         * Only bumps the lease. A renewal for an unknown lease, e.g. after the client was cleaned up, registers
+         * the client again.
+         */
+        private void renew(String clientId, InetSocketAddress client) {
+            clientLock.lock();
+            try {
+                if (client.equals(clients.getClient(clientId))) {
+                    clients.updateTimestamp(clientId);
+                    return;
+                }
+            } finally {
+                clientLock.unlock();
+            }
+            register(client);
+        }
 
-            ENDPOINT.send(leftNeighbor, new NeighborUpdate(null, rightNeighbor));
-            ENDPOINT.send(rightNeighbor, new NeighborUpdate(leftNeighbor, null));
+        private void deregister(String clientId, boolean hadToken) {
+            clientLock.lock();
+            try {
+                if (!clients.contains(clientId)) {
+                    System.err.println("Client not registered...");
+                    return;
+                }
+                removeClient(clientId);
 
-            clientLock.readLock().lock();
-            if (hadToken && clients.size() > 0)
-                ENDPOINT.send(clients.getClient(0), new Token());
-            clientLock.readLock().unlock();
+                final InetSocketAddress tokenReceiver = clients.getFirstClient();
+                if (hadToken && tokenReceiver != null)
+                    queue(tokenReceiver, new Token());
+            } finally {
+                clientLock.unlock();
+                flush();
+            }
         }
     }
 
+    private record Outgoing(InetSocketAddress receiver, Serializable payload) {
+    }
 }
@@ -0,0 +1,311 @@
+package aqua.blatt1.broker;
+
+import aqua.blatt1.common.Properties;
+import aqua.blatt1.common.msgtypes.*;
+import aqua.blatt7.endpoint.KeyPairPool;
+import aqua.blatt7.endpoint.KeyPairs;
+import aqua.blatt7.endpoint.MultiplexedEndpoint;
+import aqua.blatt7.endpoint.SecureEndpoint;
+import messaging.Message;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.security.KeyPair;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/*
+ * Simulates many tanks which join, resolve names, renew their lease and leave against a running broker, and reports
+ * the throughput of every message type and the response latency of registrations and name resolutions. The broker
+ * answers neither lease renewals nor deregistrations, so those only count as sent.
+ *
+ * Every simulated tank has its own address on a MultiplexedEndpoint and at most one request in flight. Responses
+ * are decrypted and answered by a small pool of threads, so thousands of tanks need no thread each. A request
+ * without a response for a second counts as lost and the tank moves on. Tanks idle after joining until all tanks
+ * joined, the time this initial join storm took is reported separately from the measurement.
+ *
+ * Every operation of a joined tank is a leave with the probability leaveRatio, a lease renewal with renewRatio and
+ * a name resolution otherwise. Every tank has a key pair of its own, generated in the background before the run, so
+ * the key exchanges of the joins cost what they cost with real tanks. With aqua.host.sharedkey=true all tanks share
+ * one key pair instead, which saves the key generation before large runs.
+ * Usage: BrokerLoadGenerator [tanks] [seconds] [threads] [leaveRatio] [renewRatio]
+ */
+
+public class BrokerLoadGenerator {
+
+    private static final long TIMEOUT_MILLIS = 1000;
+    private static final long MAX_JOIN_MILLIS = 60_000;
+
+    private final InetSocketAddress broker = new InetSocketAddress(Properties.HOST, Properties.PORT);
+    private final MultiplexedEndpoint multiplexer = new MultiplexedEndpoint();
+    private final Map<Operation, Series> series = new EnumMap<>(Operation.class);
+    private final List<SimulatedTank> tanks = new ArrayList<>();
+    // ids of the registered tanks, the targets of name resolutions
+    private final AtomicReferenceArray<String> ids;
+    private final ExecutorService workers;
+    private final double leaveRatio;
+    private final double renewRatio;
+    private volatile boolean measuring = false;
+    private volatile boolean running = true;
+
+    public BrokerLoadGenerator(int tanks, int threads, double leaveRatio, double renewRatio) {
+        if (leaveRatio < 0 || renewRatio < 0 || leaveRatio + renewRatio > 1)
+            throw new IllegalArgumentException("Ratios must not be negative and add up to at most 1, the rest are "
+                    + "name resolutions: leaveRatio " + leaveRatio + ", renewRatio " + renewRatio);
+        this.leaveRatio = leaveRatio;
+        this.renewRatio = renewRatio;
+        this.ids = new AtomicReferenceArray<>(tanks);
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "BrokerLoadGenerator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Operation operation : Operation.values())
+            series.put(operation, new Series());
+        final int keySize = SecureEndpoint.keySize(SecureEndpoint.Mode.SESSION);
+        if (Boolean.getBoolean("aqua.host.sharedkey")) {
+            System.out.println("All tanks share one key pair");
+            final KeyPair keyPair = KeyPairs.generate(keySize);
+            for (int i = 0; i < tanks; i++)
+                this.tanks.add(new SimulatedTank(i, keyPair));
+        } else {
+            try (KeyPairPool keyPairs = new KeyPairPool(keySize, tanks, Runtime.getRuntime().availableProcessors())) {
+                for (int i = 0; i < tanks; i++)
+                    this.tanks.add(new SimulatedTank(i, keyPairs.take()));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final int tanks = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        final int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        final double leaveRatio = args.length > 3 ? Double.parseDouble(args[3]) : 0.05;
+        final double renewRatio = args.length > 4 ? Double.parseDouble(args[4]) : 0.2;
+
+        new BrokerLoadGenerator(tanks, threads, leaveRatio, renewRatio).run(seconds);
+    }
+
+    public void run(int seconds) throws InterruptedException {
+        final var scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(this::expire, TIMEOUT_MILLIS / 10, TIMEOUT_MILLIS / 10,
+                TimeUnit.MILLISECONDS);
+
+        // all tanks join at once
+        final long joinStart = System.nanoTime();
+        tanks.forEach(tank -> workers.execute(tank::next));
+        int joined = 0;
+        while (System.nanoTime() - joinStart < TimeUnit.MILLISECONDS.toNanos(MAX_JOIN_MILLIS)) {
+            joined = joined();
+            if (joined == tanks.size())
+                break;
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        System.out.printf("%d of %d tanks joined in %.3f s%n", joined, tanks.size(),
+                (System.nanoTime() - joinStart) / 1e9);
+
+        series.values().forEach(Series::reset);
+        measuring = true;
+        final long start = System.nanoTime();
+        tanks.forEach(tank -> workers.execute(tank::next));
+        TimeUnit.SECONDS.sleep(seconds);
+        running = false;
+        final double elapsed = (System.nanoTime() - start) / 1e9;
+        scheduler.shutdownNow();
+
+        System.out.printf("%d tanks, %.1f s, leave ratio %.2f, renew ratio %.2f%n", tanks.size(), elapsed, leaveRatio,
+                renewRatio);
+        System.out.printf("%-16s %10s %10s %8s %10s %10s %10s%n", "operation", "count", "per s", "lost", "p50 ms",
+                "p99 ms", "max ms");
+        series.forEach((operation, counts) -> counts.print(operation, elapsed));
+
+        // leave the broker as it was
+        tanks.forEach(SimulatedTank::leave);
+        multiplexer.close();
+        workers.shutdown();
+    }
+
+    private int joined() {
+        int joined = 0;
+        for (int i = 0; i < ids.length(); i++) {
+            if (ids.get(i) != null)
+                joined++;
+        }
+        return joined;
+    }
+
+    private void expire() {
+        final long now = System.nanoTime();
+        tanks.forEach(tank -> tank.expire(now));
+    }
+
+    private enum Operation {
+        REGISTER,
+        NAME_RESOLUTION,
+        LEASE_RENEWAL,
+        DEREGISTER
+    }
+
+    /*
+     * A tank which only talks to the broker. Guarded by itself.
+     */
+    private class SimulatedTank implements Consumer<Message> {
+        private final int index;
+        private final SecureEndpoint endpoint;
+        private final Random random = new Random();
+        private String id;
+        private boolean hasToken;
+        private Operation pending;
+        private String pendingReqId;
+        private long sentAt;
+        private long renewedAt;
+        private long leaseNanos;
+        private long requests;
+
+        SimulatedTank(int index, KeyPair keyPair) {
+            this.index = index;
+            this.endpoint = new SecureEndpoint(multiplexer.open(this), SecureEndpoint.Mode.SESSION, keyPair);
+        }
+
+        synchronized void next() {
+            if (!running || pending != null)
+                return;
+
+            if (id == null) {
+                request(Operation.REGISTER, new RegisterRequest(), null);
+                return;
+            }
+            if (!measuring)
+                return;
+
+            final double operation = random.nextDouble();
+            if (operation < leaveRatio) {
+                endpoint.send(broker, new DeregisterRequest(id, hasToken));
+                series.get(Operation.DEREGISTER).record();
+                ids.set(index, null);
+                id = null;
+                hasToken = false;
+                workers.execute(this::next);
+            } else if (operation < leaveRatio + renewRatio) {
+                endpoint.send(broker, new LeaseRenewal(id));
+                series.get(Operation.LEASE_RENEWAL).record();
+                workers.execute(this::next);
+            } else {
+                final String target = ids.get(random.nextInt(ids.length()));
+                final String reqId = "load" + index + "." + (++requests);
+                request(Operation.NAME_RESOLUTION, new NameResolutionRequest(target != null ? target : id, reqId),
+                        reqId);
+            }
+        }
+
+        synchronized void leave() {
+            if (id != null)
+                endpoint.send(broker, new DeregisterRequest(id, hasToken));
+            id = null;
+        }
+
+        synchronized void expire(long now) {
+            if (pending != null && now - sentAt > TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS)) {
+                series.get(pending).lose();
+                pending = null;
+                next();
+            }
+            // idle tanks keep their lease while the others join
+            if (id != null && !measuring && now - renewedAt > leaseNanos / 2) {
+                endpoint.send(broker, new LeaseRenewal(id));
+                renewedAt = now;
+            }
+        }
+
+        @Override
+        public void accept(Message message) {
+            // decrypting on the receiving thread would serialize all tanks
+            if (running)
+                workers.execute(() -> receive(message));
+        }
+
+        private void request(Operation operation, Serializable request, String reqId) {
+            pending = operation;
+            pendingReqId = reqId;
+            sentAt = System.nanoTime();
+            endpoint.send(broker, request);
+        }
+
+        private void receive(Message message) {
+            final Message decrypted = endpoint.accept(message);
+            if (decrypted == null)
+                return;
+
+            synchronized (this) {
+                final Serializable payload = decrypted.getPayload();
+                if (payload instanceof Token) {
+                    hasToken = true;
+                } else if (payload instanceof RegisterResponse response && pending == Operation.REGISTER) {
+                    id = response.id();
+                    ids.set(index, id);
+                    leaseNanos = TimeUnit.MILLISECONDS.toNanos(response.leaseDuration());
+                    renewedAt = System.nanoTime();
+                    complete();
+                } else if (payload instanceof NameResolutionResponse response
+                        && pending == Operation.NAME_RESOLUTION && response.reqId().equals(pendingReqId)) {
+                    complete();
+                }
+            }
+        }
+
+        private void complete() {
+            series.get(pending).record(System.nanoTime() - sentAt);
+            pending = null;
+            next();
+        }
+    }
+
+    /*
+     * Counts and response times of one operation. Thread-safe.
+     */
+    private static class Series {
+        private long count;
+        private long lost;
+        private long[] nanos = new long[1024];
+        private int samples;
+
+        synchronized void record() {
+            count++;
+        }
+
+        synchronized void record(long latencyNanos) {
+            count++;
+            if (samples == nanos.length)
+                nanos = Arrays.copyOf(nanos, samples * 2);
+            nanos[samples++] = latencyNanos;
+        }
+
+        synchronized void lose() {
+            lost++;
+        }
+
+        synchronized void reset() {
+            count = 0;
+            lost = 0;
+            samples = 0;
+        }
+
+        synchronized void print(Operation operation, double seconds) {
+            if (samples == 0) {
+                System.out.printf("%-16s %10d %10.1f %8d %10s %10s %10s%n", operation, count, count / seconds, lost,
+                        "-", "-", "-");
+                return;
+            }
+            final long[] sorted = Arrays.copyOf(nanos, samples);
+            Arrays.sort(sorted);
+            System.out.printf("%-16s %10d %10.1f %8d %10.3f %10.3f %10.3f%n", operation, count, count / seconds, lost,
+                    percentile(sorted, 0.5) / 1e6, percentile(sorted, 0.99) / 1e6, sorted[sorted.length - 1] / 1e6);
+        }
+
+        private static long percentile(long[] sorted, double quantile) {
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1)];
+        }
+    }
+}
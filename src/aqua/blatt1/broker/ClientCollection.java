@@ -1,83 +1,159 @@
 package aqua.blatt1.broker;
 
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
+import java.util.function.Consumer;
 
 /*
  * This class is not thread-safe and hence must be used in a thread-safe way, e.g. thread confined or
  * externally synchronized.
+ *
+ * Clients are indexed by id and by client and linked into a ring in registration order, so lookups, neighbors,
+ * insertion, removal and renewal take constant time. A second list keeps them ordered by their last renewal, so
+ * expired clients are found without looking at the others.
  */
 
 public class ClientCollection<T> {
-    private final List<Client> clients;
-
-    public ClientCollection() {
-        clients = new ArrayList<>();
-    }
+    private final Map<String, Client> clientsById = new HashMap<>();
+    private final Map<T, Client> clientsByClient = new HashMap<>();
+    private Client first;
+    private Client oldest;
+    private Client newest;
 
     public ClientCollection<T> add(String id, T client) {
-        clients.add(new Client(id, client));
+        final Client entry = new Client(id, client);
+        clientsById.put(id, entry);
+        clientsByClient.put(client, entry);
+
+        if (first == null) {
+            entry.left = entry;
+            entry.right = entry;
+            first = entry;
+        } else {
+            entry.left = first.left;
+            entry.right = first;
+            first.left.right = entry;
+            first.left = entry;
+        }
+        appendNewest(entry);
         return this;
     }
 
-    public ClientCollection<T> remove(int index) {
-        clients.remove(index);
+    public ClientCollection<T> remove(String id) {
+        final Client entry = clientsById.remove(id);
+        if (entry == null)
+            return this;
+        clientsByClient.remove(entry.client);
+
+        if (entry.right == entry) {
+            first = null;
+        } else {
+            entry.left.right = entry.right;
+            entry.right.left = entry.left;
+            if (first == entry)
+                first = entry.right;
+        }
+        entry.left = null;
+        entry.right = null;
+        unlinkByAge(entry);
         return this;
     }
 
-    public int indexOf(String id) {
-        for (int i = 0; i < clients.size(); i++)
-            if (clients.get(i).id.equals(id))
-                return i;
-        return -1;
+    public boolean contains(String id) {
+        return clientsById.containsKey(id);
+    }
+
+    public String idOf(T client) {
+        final Client entry = clientsByClient.get(client);
+        return entry != null ? entry.id : null;
     }
 
-    public int indexOf(T client) {
-        for (int i = 0; i < clients.size(); i++)
-            if (clients.get(i).client.equals(client))
-                return i;
-        return -1;
+    public T getClient(String id) {
+        final Client entry = clientsById.get(id);
+        return entry != null ? entry.client : null;
     }
 
-    public T getClient(int index) {
-        return clients.get(index).client;
+    public T getFirstClient() {
+        return first != null ? first.client : null;
     }
 
     public int size() {
-        return clients.size();
+        return clientsById.size();
     }
 
-    public T getLeftNeighorOf(int index) {
-        return index == 0 ? clients.get(clients.size() - 1).client : clients.get(index - 1).client;
+    public T getLeftNeighorOf(String id) {
+        return clientsById.get(id).left.client;
     }
 
-    public T getRightNeighorOf(int index) {
-        return index < clients.size() - 1 ? clients.get(index + 1).client : clients.get(0).client;
+    public T getRightNeighorOf(String id) {
+        return clientsById.get(id).right.client;
     }
 
-    public void updateTimestamp(int index, String newId) {
-        var entry = clients.get(index);
-        entry.id = newId;
+    public void updateTimestamp(String id) {
+        final Client entry = clientsById.get(id);
         entry.updateTimestamp();
+        unlinkByAge(entry);
+        appendNewest(entry);
     }
 
+    /*
+     * Returns the ids of all clients last renewed before the timestamp, oldest first.
+     */
     public List<String> collectToClean(long timestamp) {
-        return clients.stream()
-                .filter(client -> client.timestamp < timestamp)
-                .collect(LinkedList::new, (list, client) -> list.add(client.id), LinkedList::addAll);
+        List<String> toClean = new LinkedList<>();
+        for (Client client = oldest; client != null && client.timestamp < timestamp; client = client.newer)
+            toClean.add(client.id);
+        return toClean;
     }
 
     @Override
     public String toString() {
-        return clients.toString();
+        StringJoiner joiner = new StringJoiner(", ", "[", "]");
+        forEach(client -> joiner.add(client.toString()));
+        return joiner.toString();
+    }
+
+    private void appendNewest(Client entry) {
+        entry.older = newest;
+        entry.newer = null;
+        if (newest != null)
+            newest.newer = entry;
+        else
+            oldest = entry;
+        newest = entry;
+    }
+
+    private void unlinkByAge(Client entry) {
+        if (entry.older != null)
+            entry.older.newer = entry.newer;
+        else
+            oldest = entry.newer;
+        if (entry.newer != null)
+            entry.newer.older = entry.older;
+        else
+            newest = entry.older;
+        entry.older = null;
+        entry.newer = null;
+    }
+
+    private void forEach(Consumer<Client> action) {
+        if (first == null)
+            return;
+        Client client = first;
+        do {
+            action.accept(client);
+            client = client.right;
+        } while (client != first);
     }
 
     private class Client {
         final T client;
-        String id;
+        final String id;
         long timestamp;
+        Client left;
+        Client right;
+        Client older;
+        Client newer;
 
         Client(String id, T client) {
             this.id = id;
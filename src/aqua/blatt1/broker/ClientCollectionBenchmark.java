@@ -0,0 +1,77 @@
+package aqua.blatt1.broker;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Measures register, renewal, neighbor lookup, expiry scan and deregister throughput of the ClientCollection.
+ * Usage: ClientCollectionBenchmark [tanks...]
+ */
+
+public class ClientCollectionBenchmark {
+
+    public static void main(String[] args) {
+        final int[] sizes = args.length > 0
+                ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{10_000, 100_000, 1_000_000};
+
+        // first pass warms up, second pass measures
+        for (int pass = 0; pass < 2; pass++)
+            for (int size : sizes)
+                measure(size, pass == 1);
+    }
+
+    private static void measure(int tanks, boolean print) {
+        final ClientCollection<InetSocketAddress> clients = new ClientCollection<>();
+        final List<InetSocketAddress> addresses = new ArrayList<>(tanks);
+        for (int i = 0; i < tanks; i++)
+            addresses.add(InetSocketAddress.createUnresolved("tank" + i, 1024 + i % 60000));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < tanks; i++)
+            clients.add("tank" + i, addresses.get(i));
+        final long register = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (InetSocketAddress address : addresses)
+            clients.updateTimestamp(clients.idOf(address));
+        final long renew = System.nanoTime() - start;
+
+        int checksum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < tanks; i++) {
+            final String id = "tank" + i;
+            checksum += clients.getLeftNeighorOf(id).getPort() + clients.getRightNeighorOf(id).getPort();
+        }
+        final long neighbors = System.nanoTime() - start;
+
+        // every tank was just renewed, so a cleanup pass finds nothing and should not depend on the size
+        final int scans = 10_000;
+        start = System.nanoTime();
+        for (int i = 0; i < scans; i++)
+            checksum += clients.collectToClean(System.currentTimeMillis() - 10_000).size();
+        final long expiry = System.nanoTime() - start;
+
+        final List<Integer> order = new ArrayList<>(tanks);
+        for (int i = 0; i < tanks; i++)
+            order.add(i);
+        Collections.shuffle(order, new Random(42));
+        start = System.nanoTime();
+        for (int i : order)
+            clients.remove("tank" + i);
+        final long deregister = System.nanoTime() - start;
+
+        if (print)
+            System.out.printf("%9d tanks: register %s, renew %s, neighbors %s, expiry scan %s, deregister %s "
+                            + "(checksum %d)%n", tanks, rate(tanks, register), rate(tanks, renew),
+                    rate(tanks, neighbors), rate(scans, expiry), rate(tanks, deregister), checksum);
+    }
+
+    private static String rate(int operations, long nanos) {
+        return String.format("%,.0f ops/s", operations / (nanos / 1e9));
+    }
+}
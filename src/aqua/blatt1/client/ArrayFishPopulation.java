@@ -0,0 +1,314 @@
+package aqua.blatt1.client;
+
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Keeps the fish in parallel primitive arrays, so a tick walks plain arrays and allocates nothing. FishModel objects
+ * are only created when fish are handed off, recorded in a snapshot or iterated. The wobble is looked up in a
+ * precomputed table and drawn from a generator owned by each chunk, instead of Math.sin and the shared Random for
+ * every fish, with the same distribution as FishModel.update().
+ *
+ * With a parallelism above one, large populations are split into chunks which a ForkJoinPool steps in parallel.
+ * Each chunk records its handoffs and removals in its own buffer, the buffers are merged afterwards on the calling
+ * thread, so the handoffs only see mayHandOff calls from the workers.
+ */
+
+class ArrayFishPopulation implements FishPopulation {
+
+    static final int PARALLEL_THRESHOLD = 4096;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int LEFT = 1;
+    private static final int TOGGLED = 2;
+    private static final int EARLY = 4;
+    private static final int X_SIZE = FishModel.getXSize();
+    private static final int RIGHT_EDGE = TankModel.WIDTH - X_SIZE;
+    private static final int MAX_Y = TankModel.HEIGHT - FishModel.getYSize();
+    // discrete sine of x / 30 for x from -X_SIZE to WIDTH
+    private static final byte[] WOBBLE = new byte[TankModel.WIDTH + X_SIZE + 1];
+
+    static {
+        for (int i = 0; i < WOBBLE.length; i++)
+            WOBBLE[i] = (byte) Math.round(Math.sin((i - X_SIZE) / 30.0));
+    }
+
+    private final int leadTicks;
+    private final ForkJoinPool pool;
+    private final Chunk sequential = new Chunk();
+    private final Chunk[] single = {sequential};
+    private final Chunk[] chunks;
+    private final RecursiveAction stepChunks;
+    private String[] ids;
+    private int[] xs;
+    private int[] ys;
+    private byte[] flags;
+    private volatile int size;
+
+    ArrayFishPopulation(int leadTicks) {
+        this(leadTicks, 1);
+    }
+
+    ArrayFishPopulation(int leadTicks, int parallelism) {
+        this.leadTicks = leadTicks;
+        ids = new String[16];
+        xs = new int[16];
+        ys = new int[16];
+        flags = new byte[16];
+
+        if (parallelism > 1) {
+            pool = new ForkJoinPool(parallelism);
+            chunks = new Chunk[parallelism * CHUNKS_PER_THREAD];
+            for (int c = 0; c < chunks.length; c++)
+                chunks[c] = new Chunk();
+            stepChunks = new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(chunks);
+                }
+            };
+        } else {
+            pool = null;
+            chunks = single;
+            stepChunks = null;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void add(FishModel fish) {
+        final int n = size;
+        if (n == ids.length) {
+            final int capacity = n * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+        ids[n] = fish.getId();
+        xs[n] = fish.getX();
+        ys[n] = fish.getY();
+        flags[n] = (byte) ((fish.getDirection() == Direction.LEFT ? LEFT : 0) | (fish.isToggled() ? TOGGLED : 0));
+        size = n + 1;
+    }
+
+    @Override
+    public void step(Handoffs handoffs) {
+        final int n = size;
+        final Chunk[] stepped;
+        if (pool == null || n < PARALLEL_THRESHOLD) {
+            stepped = single;
+            sequential.prepare(handoffs, 0, n);
+            sequential.compute();
+        } else {
+            stepped = chunks;
+            final int chunkSize = (n + chunks.length - 1) / chunks.length;
+            for (int c = 0; c < chunks.length; c++)
+                chunks[c].prepare(handoffs, Math.min(c * chunkSize, n), Math.min((c + 1) * chunkSize, n));
+            stepChunks.reinitialize();
+            pool.invoke(stepChunks);
+        }
+
+        for (Chunk chunk : stepped)
+            chunk.handOff(handoffs);
+        // later chunks first, so every removal swaps in a fish which stays
+        for (int c = stepped.length - 1; c >= 0; c--)
+            stepped[c].removeGone();
+    }
+
+    @Override
+    public boolean anyAboutToLeave(Direction direction, int ticks) {
+        final int n = size;
+        for (int i = 0; i < n; i++) {
+            final boolean left = (flags[i] & LEFT) != 0;
+            final int ticksToEdge = left ? xs[i] : RIGHT_EDGE - xs[i];
+            if (ticksToEdge >= 0 && ticksToEdge <= ticks && (flags[i] & EARLY) == 0
+                    && (direction == null || left == (direction == Direction.LEFT)))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Set<FishModel> nonDeparting() {
+        final Set<FishModel> fishies = new HashSet<>();
+        final int n = size;
+        for (int i = 0; i < n; i++) {
+            final boolean departing = (flags[i] & LEFT) != 0 ? xs[i] < 0 : xs[i] > RIGHT_EDGE;
+            if (!departing && (flags[i] & EARLY) == 0)
+                fishies.add(toFishModel(i));
+        }
+        return fishies;
+    }
+
+    @Override
+    public boolean toggle(String fishId) {
+        final int n = size;
+        for (int i = 0; i < n; i++) {
+            if (ids[i].equals(fishId)) {
+                flags[i] ^= TOGGLED;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    /*
+     * Copies the fish, so other threads get a best effort view of a tick in progress.
+     */
+    @Override
+    public Iterator<FishModel> iterator() {
+        final String[] ids = this.ids;
+        final int[] xs = this.xs;
+        final int[] ys = this.ys;
+        final byte[] flags = this.flags;
+        final int n = Math.min(size, Math.min(Math.min(ids.length, xs.length), Math.min(ys.length, flags.length)));
+        final List<FishModel> fishies = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            final String id = ids[i];
+            if (id != null)
+                fishies.add(new FishModel(id, xs[i], ys[i],
+                        (flags[i] & LEFT) != 0 ? Direction.LEFT : Direction.RIGHT, (flags[i] & TOGGLED) != 0));
+        }
+        return fishies.iterator();
+    }
+
+    private FishModel toFishModel(int i) {
+        return new FishModel(ids[i], xs[i], ys[i],
+                (flags[i] & LEFT) != 0 ? Direction.LEFT : Direction.RIGHT, (flags[i] & TOGGLED) != 0);
+    }
+
+    private void removeAt(int i) {
+        final int last = size - 1;
+        ids[i] = ids[last];
+        xs[i] = xs[last];
+        ys[i] = ys[last];
+        flags[i] = flags[last];
+        ids[last] = null;
+        size = last;
+    }
+
+    private static int wobble(int x) {
+        final int index = x + X_SIZE;
+        return index >= 0 && index < WOBBLE.length ? WOBBLE[index] : (int) Math.round(Math.sin(x / 30.0));
+    }
+
+    /*
+     * Steps the fish from index from to to and buffers what happened to them, events are the fish index shifted
+     * left by two plus its kind.
+     */
+    @SuppressWarnings("serial") // a task of the pool, never serialized
+    private class Chunk extends RecursiveAction {
+        private static final int EDGE_DEPARTURE = 0;
+        private static final int EARLY_DEPARTURE = 1;
+        private static final int GONE = 2;
+
+        private Handoffs handoffs;
+        private int from;
+        private int to;
+        private int[] events = new int[64];
+        private int eventCount;
+        private boolean blockedLeft;
+        private boolean blockedRight;
+        private int seed = new Random().nextInt() | 1;
+
+        void prepare(Handoffs handoffs, int from, int to) {
+            this.handoffs = handoffs;
+            this.from = from;
+            this.to = to;
+            eventCount = 0;
+            blockedLeft = false;
+            blockedRight = false;
+            reinitialize();
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = from; i < to; i++) {
+                final boolean left = (flags[i] & LEFT) != 0;
+                final int x = xs[i] + (left ? -1 : 1);
+                xs[i] = x;
+
+                if (nextRandom() % 10 >= 8) {
+                    final int y = ys[i] + wobble(x);
+                    ys[i] = y < 0 ? 0 : Math.min(y, MAX_Y);
+                }
+
+                final int ticksToEdge = left ? x : RIGHT_EDGE - x;
+                final Direction direction = left ? Direction.LEFT : Direction.RIGHT;
+                if (leadTicks > 0 && ticksToEdge == leadTicks && handoffs.mayHandOff(direction)) {
+                    record(i, EARLY_DEPARTURE);
+                    flags[i] |= EARLY;
+                }
+
+                if (ticksToEdge == 0) {
+                    if ((flags[i] & EARLY) != 0) {
+                        flags[i] &= ~EARLY;
+                    } else if (handoffs.mayHandOff(direction)) {
+                        record(i, EDGE_DEPARTURE);
+                    } else {
+                        if (left)
+                            blockedLeft = true;
+                        else
+                            blockedRight = true;
+                        flags[i] ^= LEFT;
+                    }
+                }
+
+                if (x == (left ? -X_SIZE : TankModel.WIDTH))
+                    record(i, GONE);
+            }
+        }
+
+        void handOff(Handoffs handoffs) {
+            for (int e = 0; e < eventCount; e++) {
+                final int kind = events[e] & 3;
+                if (kind != GONE)
+                    handoffs.depart(toFishModel(events[e] >>> 2), kind == EARLY_DEPARTURE);
+            }
+            if (blockedLeft)
+                handoffs.blocked(Direction.LEFT);
+            if (blockedRight)
+                handoffs.blocked(Direction.RIGHT);
+            this.handoffs = null;
+        }
+
+        // in descending index order, so the fish swapped in has already been stepped and stays
+        void removeGone() {
+            for (int e = eventCount - 1; e >= 0; e--) {
+                if ((events[e] & 3) == GONE)
+                    removeAt(events[e] >>> 2);
+            }
+        }
+
+        private void record(int index, int kind) {
+            if (eventCount == events.length)
+                events = Arrays.copyOf(events, eventCount * 2);
+            events[eventCount++] = index << 2 | kind;
+        }
+
+        // xorshift, non-negative
+        private int nextRandom() {
+            int s = seed;
+            s ^= s << 13;
+            s ^= s >>> 17;
+            s ^= s << 5;
+            seed = s;
+            return s & Integer.MAX_VALUE;
+        }
+    }
+}
@@ -1,21 +1,38 @@
 package aqua.blatt1.client;
 
+import aqua.blatt1.common.Direction;
 import aqua.blatt1.common.FishModel;
 import aqua.blatt1.common.Properties;
+import aqua.blatt1.common.codec.WireCodec;
 import aqua.blatt1.common.msgtypes.*;
 import aqua.blatt7.endpoint.SecureEndpoint;
+import aqua.blatt7.endpoint.Transport;
 import messaging.Endpoint;
 import messaging.Message;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public class ClientCommunicator {
     private final Endpoint endpoint;
+    // a batch of fish must fit into a single datagram
+    private final int maxPayloadSize;
 
     public ClientCommunicator() {
-        endpoint = new SecureEndpoint();
+        this(new SecureEndpoint());
+    }
+
+    /*
+     * Plain endpoints are expected to send the WireCodec format.
+     */
+    public ClientCommunicator(Endpoint endpoint) {
+        this.endpoint = endpoint;
+        this.maxPayloadSize = endpoint instanceof SecureEndpoint secureEndpoint
+                ? secureEndpoint.getMaxPayloadSize()
+                : Transport.configured().maxDatagramSize();
     }
 
     public ClientForwarder newClientForwarder() {
@@ -37,6 +54,10 @@ public class ClientCommunicator {
             endpoint.send(broker, new RegisterRequest());
         }
 
+        public void renewLease(String id) {
+            endpoint.send(broker, new LeaseRenewal(id));
+        }
+
         public void deregister(String id, boolean hadToken) {
             endpoint.send(broker, new DeregisterRequest(id, hadToken));
         }
@@ -45,10 +66,35 @@ public class ClientCommunicator {
             endpoint.send(receiver, new HandoffRequest(fish));
         }
 
+        public void handOff(List<FishModel> fishies, InetSocketAddress receiver) {
+            handOff(fishies, receiver, 0);
+        }
+
+        public void handOff(List<FishModel> fishies, InetSocketAddress receiver, long arrivalTime) {
+            int from = 0;
+            int size = WireCodec.HANDOFF_BATCH_OVERHEAD;
+            for (int i = 0; i < fishies.size(); i++) {
+                final int fishSize = WireCodec.encodedSize(fishies.get(i));
+                if (i > from && size + fishSize > maxPayloadSize) {
+                    endpoint.send(receiver, new HandoffBatch(new ArrayList<>(fishies.subList(from, i)), arrivalTime));
+                    from = i;
+                    size = WireCodec.HANDOFF_BATCH_OVERHEAD;
+                }
+                size += fishSize;
+            }
+            if (from < fishies.size())
+                endpoint.send(receiver, new HandoffBatch(new ArrayList<>(fishies.subList(from, fishies.size())),
+                        arrivalTime));
+        }
+
         public void handOffToken(InetSocketAddress receiver) {
             endpoint.send(receiver, new Token());
         }
 
+        public void handOffEdgePermit(Direction direction, InetSocketAddress receiver) {
+            endpoint.send(receiver, new EdgePermit(direction));
+        }
+
         public void sendSnapshotMarker(InetSocketAddress... receivers) {
             for (InetSocketAddress receiver : receivers) {
                 endpoint.send(receiver, new SnapshotMarker());
@@ -82,41 +128,55 @@ public class ClientCommunicator {
         @Override
         public void run() {
             while (!isInterrupted()) {
-                Message msg = endpoint.blockingReceive();
+                final Message msg = endpoint.blockingReceive();
+                // handled by the simulation thread, so receiving never waits for a tick
+                tankModel.post(() -> handle(tankModel, msg));
+            }
+            System.out.println("Receiver stopped.");
+        }
+    }
 
-                if (msg.getPayload() instanceof RegisterResponse)
-                    tankModel.onRegistration(((RegisterResponse) msg.getPayload()).id(),
-                            ((RegisterResponse) msg.getPayload()).neighborUpdate().leftNeighbor(),
-                            ((RegisterResponse) msg.getPayload()).neighborUpdate().rightNeighbor(),
-                            ((RegisterResponse) msg.getPayload()).leaseDuration());
+    /*
+     * Passes a received message to the tank, must be called on its simulation thread.
+     */
+    void handle(TankModel tankModel, Message msg) {
+        if (msg.getPayload() instanceof RegisterResponse)
+            tankModel.onRegistration(((RegisterResponse) msg.getPayload()).id(),
+                    ((RegisterResponse) msg.getPayload()).neighborUpdate().leftNeighbor(),
+                    ((RegisterResponse) msg.getPayload()).neighborUpdate().rightNeighbor(),
+                    ((RegisterResponse) msg.getPayload()).leaseDuration());
 
-                if (msg.getPayload() instanceof HandoffRequest)
-                    tankModel.receiveFish(((HandoffRequest) msg.getPayload()).fish());
+        if (msg.getPayload() instanceof HandoffRequest)
+            tankModel.receiveFish(((HandoffRequest) msg.getPayload()).fish());
 
-                if (msg.getPayload() instanceof NeighborUpdate)
-                    tankModel.updateNeighbors(((NeighborUpdate) msg.getPayload()).leftNeighbor(),
-                            ((NeighborUpdate) msg.getPayload()).rightNeighbor());
+        if (msg.getPayload() instanceof HandoffBatch)
+            tankModel.receiveFishies(((HandoffBatch) msg.getPayload()).fishies(),
+                    ((HandoffBatch) msg.getPayload()).arrivalTime());
 
-                if (msg.getPayload() instanceof Token)
-                    tankModel.receiveToken();
+        if (msg.getPayload() instanceof NeighborUpdate)
+            tankModel.updateNeighbors(((NeighborUpdate) msg.getPayload()).leftNeighbor(),
+                    ((NeighborUpdate) msg.getPayload()).rightNeighbor());
 
-                if (msg.getPayload() instanceof SnapshotMarker)
-                    tankModel.receiveSnapshotMarker(msg.getSender());
+        if (msg.getPayload() instanceof Token)
+            tankModel.receiveToken();
 
-                if (msg.getPayload() instanceof SnapshotResult)
-                    tankModel.receiveSnapshotResult(((SnapshotResult) msg.getPayload()).snapshotResult());
+        if (msg.getPayload() instanceof EdgePermit)
+            tankModel.receiveEdgePermit(msg.getSender(), ((EdgePermit) msg.getPayload()).direction());
 
-                if (msg.getPayload() instanceof LocationRequest)
-                    tankModel.locateFishLocally(((LocationRequest) msg.getPayload()).fishId());
+        if (msg.getPayload() instanceof SnapshotMarker)
+            tankModel.receiveSnapshotMarker(msg.getSender());
 
-                if (msg.getPayload() instanceof NameResolutionResponse)
-                    tankModel.receiveNameResolutionResponse((NameResolutionResponse) msg.getPayload());
+        if (msg.getPayload() instanceof SnapshotResult)
+            tankModel.receiveSnapshotResult(((SnapshotResult) msg.getPayload()).snapshotResult());
 
-                if (msg.getPayload() instanceof LocationUpdate)
-                    tankModel.receiveLocationUpdate(msg.getSender(), ((LocationUpdate) msg.getPayload()).reqId());
-            }
-            System.out.println("Receiver stopped.");
-        }
+        if (msg.getPayload() instanceof LocationRequest)
+            tankModel.receiveLocationRequest(((LocationRequest) msg.getPayload()).fishId());
+
+        if (msg.getPayload() instanceof NameResolutionResponse)
+            tankModel.receiveNameResolutionResponse((NameResolutionResponse) msg.getPayload());
+
+        if (msg.getPayload() instanceof LocationUpdate)
+            tankModel.receiveLocationUpdate(msg.getSender(), ((LocationUpdate) msg.getPayload()).reqId());
     }
 
 }
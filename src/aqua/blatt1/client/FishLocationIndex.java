@@ -0,0 +1,74 @@
+package aqua.blatt1.client;
+
+import java.net.InetSocketAddress;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Home agent index: the tanks the fish created by this tank are in, if they are not at home. Every fish abroad has
+ * one entry, which each move overwrites and its return home removes. When the index grows beyond its capacity, the
+ * quarter of the entries which have not been updated for the longest time are dropped, as they most likely belong
+ * to fish which left the ring with their tank. A fish may still be alive though, so a miss is no proof that the
+ * fish is at home, see TankModel.locateFishGlobally.
+ *
+ * Thread-safe, lookups and updates are lock-free.
+ */
+
+public class FishLocationIndex {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int capacity;
+    private final Map<String, Location> locations = new ConcurrentHashMap<>();
+    private final Object pruneLock = new Object();
+
+    public FishLocationIndex() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public FishLocationIndex(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public void markHome(String fishId) {
+        locations.remove(fishId);
+    }
+
+    /*
+     * Records the tank the fish is in.
+     */
+    public void update(String fishId, InetSocketAddress tank) {
+        locations.put(fishId, new Location(tank, System.currentTimeMillis()));
+        if (locations.size() > capacity)
+            prune();
+    }
+
+    /*
+     * Returns the tank the fish is in or null if it is at home or unknown.
+     */
+    public InetSocketAddress locate(String fishId) {
+        final Location location = locations.get(fishId);
+        return location != null ? location.tank : null;
+    }
+
+    public int size() {
+        return locations.size();
+    }
+
+    private void prune() {
+        synchronized (pruneLock) {
+            if (locations.size() <= capacity)
+                return;
+            locations.entrySet().stream()
+                    .sorted(Comparator.comparingLong(entry -> entry.getValue().updatedAt))
+                    .limit(locations.size() - capacity * 3L / 4)
+                    .toList()
+                    // an entry updated in the meantime is kept
+                    .forEach(entry -> locations.remove(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    private record Location(InetSocketAddress tank, long updatedAt) {
+    }
+}
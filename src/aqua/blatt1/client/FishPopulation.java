@@ -0,0 +1,62 @@
+package aqua.blatt1.client;
+
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+
+import java.util.Set;
+
+/*
+ * The fish of a tank. Only the simulation thread changes it, the iterator may be used by other threads, e.g. for
+ * painting, and is weakly consistent.
+ */
+
+interface FishPopulation extends Iterable<FishModel> {
+
+    int size();
+
+    /*
+     * Takes over the fish, the population may copy it and not keep the object.
+     */
+    void add(FishModel fish);
+
+    /*
+     * Moves every fish by one tick. Fish hitting an edge are handed to the handoffs if they allow it and turn around
+     * otherwise, fish which are handed off early do not turn around. Fish which swam out of the tank are removed.
+     */
+    void step(Handoffs handoffs);
+
+    /*
+     * Whether a fish swimming in the direction, any direction if null, reaches its edge within the ticks and was not
+     * handed off early.
+     */
+    boolean anyAboutToLeave(Direction direction, int ticks);
+
+    /*
+     * The fish which belong to this tank, i.e. neither departing nor handed off early.
+     */
+    Set<FishModel> nonDeparting();
+
+    /*
+     * Returns whether the fish is in the population.
+     */
+    boolean toggle(String fishId);
+
+    /*
+     * Releases the threads stepping the fish, the population is not stepped afterwards.
+     */
+    default void close() {
+    }
+
+    /*
+     * mayHandOff may be called from threads stepping the fish in parallel and must not change during a step, depart
+     * and blocked are only called from the thread calling step.
+     */
+    interface Handoffs {
+
+        boolean mayHandOff(Direction direction);
+
+        void depart(FishModel fish, boolean early);
+
+        void blocked(Direction direction);
+    }
+}
@@ -0,0 +1,74 @@
+package aqua.blatt1.client;
+
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/*
+ * Compares tick time and allocation of the object and the array fish population. No tank holds the token, so every
+ * fish stays and turns around at the edges.
+ * Usage: FishPopulationBenchmark [fish...]
+ */
+
+public class FishPopulationBenchmark {
+
+    private static final int TICKS = 200;
+
+    public static void main(String[] args) {
+        final int[] sizes = args.length > 0
+                ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{1_000, 100_000, 1_000_000};
+
+        // first pass warms up, second pass measures
+        for (int pass = 0; pass < 2; pass++) {
+            for (int size : sizes) {
+                measure("objects", size, ObjectFishPopulation::new, pass == 1);
+                measure("arrays", size, ArrayFishPopulation::new, pass == 1);
+            }
+        }
+    }
+
+    private static void measure(String name, int fish, IntFunction<FishPopulation> factory, boolean print) {
+        final FishPopulation population = factory.apply(0);
+        final Random random = new Random(42);
+        for (int i = 0; i < fish; i++)
+            population.add(new FishModel("fish" + i + "@tank1",
+                    random.nextInt(TankModel.WIDTH - FishModel.getXSize()),
+                    random.nextInt(TankModel.HEIGHT - FishModel.getYSize()),
+                    random.nextBoolean() ? Direction.LEFT : Direction.RIGHT));
+
+        final FishPopulation.Handoffs handoffs = new FishPopulation.Handoffs() {
+            @Override
+            public boolean mayHandOff(Direction direction) {
+                return false;
+            }
+
+            @Override
+            public void depart(FishModel fish, boolean early) {
+            }
+
+            @Override
+            public void blocked(Direction direction) {
+            }
+        };
+
+        final long allocatedBefore = allocatedBytes();
+        final long start = System.nanoTime();
+        for (int tick = 0; tick < TICKS; tick++)
+            population.step(handoffs);
+        final long nanos = System.nanoTime() - start;
+        final long allocated = allocatedBytes() - allocatedBefore;
+
+        if (print)
+            System.out.printf("%-8s %9d fish: %10.3f ms/tick, %12d bytes/tick allocated%n", name, fish,
+                    nanos / 1e6 / TICKS, allocated / TICKS);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
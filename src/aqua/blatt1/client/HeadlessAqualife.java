@@ -0,0 +1,78 @@
+package aqua.blatt1.client;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Runs a tank without the GUI, e.g. on hosts without a display, and prints its throughput periodically. The tank
+ * deregisters when the process is terminated.
+ * Usage: HeadlessAqualife [fish] [tickMillis] [reportSeconds]
+ */
+
+public class HeadlessAqualife {
+
+    public static void main(String[] args) {
+        final int fish = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        final long tickMillis = args.length > 1 ? Long.parseLong(args[1]) : TankModel.TICK_MILLIS;
+        final int reportSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        ClientCommunicator communicator = new ClientCommunicator();
+        TankModel tankModel = new TankModel(communicator.newClientForwarder(), fish, tickMillis);
+
+        communicator.newClientReceiver(tankModel).start();
+
+        var reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(new Reporter(tankModel, reportSeconds), reportSeconds, reportSeconds,
+                TimeUnit.SECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(tankModel::finish));
+
+        tankModel.run();
+    }
+
+    /*
+     * Prints the rates since the previous report and the totals, including those of the tank address cache.
+     */
+    private static class Reporter implements Runnable {
+        private final TankModel tankModel;
+        private final int seconds;
+        private long ticks;
+        private long fishSent;
+        private long fishReceived;
+        private long tokenVisits;
+
+        Reporter(TankModel tankModel, int seconds) {
+            this.tankModel = tankModel;
+            this.seconds = seconds;
+        }
+
+        @Override
+        public void run() {
+            final SimulationStatistics statistics = tankModel.getStatistics();
+            final long ticks = statistics.getTicks();
+            final long fishSent = statistics.getFishSent();
+            final long fishReceived = statistics.getFishReceived();
+            final long tokenVisits = statistics.getTokenVisits();
+            final TankAddressCache addressCache = tankModel.getAddressCache();
+            int fish = 0;
+            for (var ignored : tankModel)
+                fish++;
+
+            System.out.printf("%s: %d fish, %.1f ticks/s, %.1f fish/s out, %.1f fish/s in, %.1f token visits/s, %s, "
+                            + "address cache %d hits/%d misses%n",
+                    tankModel.getId(), fish, (double) (ticks - this.ticks) / seconds,
+                    (double) (fishSent - this.fishSent) / seconds, (double) (fishReceived - this.fishReceived) / seconds,
+                    (double) (tokenVisits - this.tokenVisits) / seconds, tankModel.getTokenStatistics(),
+                    addressCache.getHits(), addressCache.getMisses());
+
+            this.ticks = ticks;
+            this.fishSent = fishSent;
+            this.fishReceived = fishReceived;
+            this.tokenVisits = tokenVisits;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package aqua.blatt1.client;
+
+import aqua.blatt1.broker.Broker;
+import aqua.blatt7.endpoint.KeyPairs;
+import aqua.blatt7.endpoint.LoopbackNetwork;
+import aqua.blatt7.endpoint.SecureEndpoint;
+import aqua.blatt7.endpoint.Transport;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Runs a broker and a ring of headless tanks in one process on the LoopbackNetwork, so experiments need no network
+ * and the conditions of the links are under control, see LoopbackNetwork for the system properties which configure
+ * them. The random fault pattern of every link is reproducible, the timing of a run is not. Prints the throughput of
+ * all tanks and the datagrams the network lost or reordered after the given time.
+ *
+ * Nothing regenerates a lost Token or EdgePermit, so with loss every lost permit is gone for the rest of the run
+ * and the tanks waiting for it stall. Throughput under loss measures how fast the permits die out, not a steady
+ * state. Every tank generates a key pair of its own, aqua.host.sharedkey=true shares one like in TankHost.
+ * Usage: LoopbackExperiment [tanks] [seconds] [fish] [tickMillis]
+ */
+
+public class LoopbackExperiment {
+
+    public static void main(String[] args) throws InterruptedException {
+        final int tanks = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        final int fish = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        final long tickMillis = args.length > 3 ? Long.parseLong(args[3]) : TankModel.TICK_MILLIS;
+
+        // the broker opens its endpoint when it is loaded
+        System.setProperty(Transport.TRANSPORT_PROPERTY, Transport.LOOPBACK.name());
+        final Thread broker = new Thread(() -> Broker.main(new String[0]), "Broker");
+        broker.setDaemon(true);
+        broker.start();
+
+        final KeyPair sharedKeyPair = Boolean.getBoolean("aqua.host.sharedkey") ? newKeyPair() : null;
+        if (sharedKeyPair != null)
+            System.out.println("All tanks share one key pair");
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "LoopbackExperiment");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final List<TankModel> tankModels = new ArrayList<>();
+        for (int i = 0; i < tanks; i++) {
+            final ClientCommunicator communicator = new ClientCommunicator(
+                    new SecureEndpoint(Transport.LOOPBACK.open(null), SecureEndpoint.Mode.SESSION,
+                            sharedKeyPair != null ? sharedKeyPair : newKeyPair()));
+            final TankModel tankModel = new TankModel(communicator.newClientForwarder(), fish, tickMillis, scheduler);
+            final ClientCommunicator.ClientReceiver receiver = communicator.newClientReceiver(tankModel);
+            receiver.setDaemon(true);
+            receiver.start();
+            tankModel.start();
+            tankModels.add(tankModel);
+        }
+
+        TimeUnit.SECONDS.sleep(seconds);
+
+        long ticks = 0;
+        long fishSent = 0;
+        long fishReceived = 0;
+        long tokenVisits = 0;
+        int registered = 0;
+        for (TankModel tankModel : tankModels) {
+            final SimulationStatistics statistics = tankModel.getStatistics();
+            ticks += statistics.getTicks();
+            fishSent += statistics.getFishSent();
+            fishReceived += statistics.getFishReceived();
+            tokenVisits += statistics.getTokenVisits();
+            if (tankModel.getId() != null)
+                registered++;
+        }
+        System.out.printf("%d/%d tanks registered, %.1f ticks/s, %.1f fish/s out, %.1f fish/s in, "
+                        + "%.1f token visits/s%n", registered, tanks, (double) ticks / seconds,
+                (double) fishSent / seconds, (double) fishReceived / seconds, (double) tokenVisits / seconds);
+        System.out.println(LoopbackNetwork.shared());
+        if (LoopbackNetwork.shared().getLost() > 0)
+            System.out.println("Lost tokens and edge permits are not regenerated, tanks waiting for them stall");
+
+        tankModels.forEach(TankModel::finishAsync);
+        tankModels.forEach(TankModel::finish);
+        System.exit(0);
+    }
+
+    private static KeyPair newKeyPair() {
+        return KeyPairs.generate(SecureEndpoint.keySize(SecureEndpoint.Mode.SESSION));
+    }
+}
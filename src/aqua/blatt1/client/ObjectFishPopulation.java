@@ -0,0 +1,91 @@
+package aqua.blatt1.client;
+
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/*
+ * Keeps every fish as a FishModel in a concurrent set.
+ */
+
+class ObjectFishPopulation implements FishPopulation {
+
+    private final Set<FishModel> fishies = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Set<FishModel> earlyDepartures = new HashSet<>();
+    private final int leadTicks;
+
+    ObjectFishPopulation(int leadTicks) {
+        this.leadTicks = leadTicks;
+    }
+
+    @Override
+    public int size() {
+        return fishies.size();
+    }
+
+    @Override
+    public void add(FishModel fish) {
+        fishies.add(fish);
+    }
+
+    @Override
+    public void step(Handoffs handoffs) {
+        for (Iterator<FishModel> it = fishies.iterator(); it.hasNext(); ) {
+            FishModel fish = it.next();
+
+            fish.update();
+
+            if (leadTicks > 0 && fish.ticksToEdge() == leadTicks && handoffs.mayHandOff(fish.getDirection())) {
+                handoffs.depart(fish, true);
+                earlyDepartures.add(fish);
+            }
+
+            if (fish.hitsEdge() && !earlyDepartures.remove(fish)) {
+                if (handoffs.mayHandOff(fish.getDirection())) {
+                    handoffs.depart(fish, false);
+                } else {
+                    handoffs.blocked(fish.getDirection());
+                    fish.reverse();
+                }
+            }
+
+            if (fish.disappears())
+                it.remove();
+        }
+    }
+
+    @Override
+    public boolean anyAboutToLeave(Direction direction, int ticks) {
+        for (FishModel fish : fishies) {
+            final int ticksToEdge = fish.ticksToEdge();
+            if (ticksToEdge >= 0 && ticksToEdge <= ticks && !earlyDepartures.contains(fish)
+                    && (direction == null || fish.getDirection() == direction))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Set<FishModel> nonDeparting() {
+        return fishies.stream()
+                .filter(fish -> !fish.isDeparting() && !earlyDepartures.contains(fish))
+                .collect(Collectors.toSet());
+    }
+
+    @Override
+    public boolean toggle(String fishId) {
+        final var found = fishies.stream()
+                .filter(fish -> fish.getId().equals(fishId))
+                .findFirst();
+        found.ifPresent(FishModel::toggle);
+        return found.isPresent();
+    }
+
+    @Override
+    public Iterator<FishModel> iterator() {
+        return fishies.iterator();
+    }
+}
@@ -0,0 +1,63 @@
+package aqua.blatt1.client;
+
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+
+import java.util.Random;
+
+/*
+ * Measures how the tick time of the array fish population scales with the threads stepping it. No tank holds the
+ * token, so every fish stays and turns around at the edges.
+ * Usage: ParallelFishBenchmark [fish] [maxThreads]
+ */
+
+public class ParallelFishBenchmark {
+
+    private static final int TICKS = 200;
+
+    public static void main(String[] args) {
+        final int fish = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        double baseline = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            final ArrayFishPopulation population = new ArrayFishPopulation(0, threads);
+            final Random random = new Random(42);
+            for (int i = 0; i < fish; i++)
+                population.add(new FishModel("fish" + i + "@tank1",
+                        random.nextInt(TankModel.WIDTH - FishModel.getXSize()),
+                        random.nextInt(TankModel.HEIGHT - FishModel.getYSize()),
+                        random.nextBoolean() ? Direction.LEFT : Direction.RIGHT));
+
+            // warm up, then measure
+            run(population);
+            final long start = System.nanoTime();
+            run(population);
+            final double millis = (System.nanoTime() - start) / 1e6 / TICKS;
+
+            if (threads == 1)
+                baseline = millis;
+            System.out.printf("%2d threads %9d fish: %8.3f ms/tick, speedup %.2f%n", threads, fish, millis,
+                    baseline / millis);
+        }
+    }
+
+    private static void run(FishPopulation population) {
+        final FishPopulation.Handoffs handoffs = new FishPopulation.Handoffs() {
+            @Override
+            public boolean mayHandOff(Direction direction) {
+                return false;
+            }
+
+            @Override
+            public void depart(FishModel fish, boolean early) {
+            }
+
+            @Override
+            public void blocked(Direction direction) {
+            }
+        };
+        for (int tick = 0; tick < TICKS; tick++)
+            population.step(handoffs);
+    }
+}
@@ -0,0 +1,52 @@
+package aqua.blatt1.client;
+
+/*
+ * Running totals of a tank's simulation. Only the simulation thread counts, so plain increments of volatile fields
+ * suffice and other threads read consistent values.
+ */
+
+public class SimulationStatistics {
+
+    private volatile long ticks;
+    private volatile long fishSent;
+    private volatile long fishReceived;
+    private volatile long tokenVisits;
+
+    void recordTick() {
+        ticks++;
+    }
+
+    void recordFishSent(int count) {
+        fishSent += count;
+    }
+
+    void recordFishReceived() {
+        fishReceived++;
+    }
+
+    void recordTokenVisit() {
+        tokenVisits++;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    public long getFishSent() {
+        return fishSent;
+    }
+
+    public long getFishReceived() {
+        return fishReceived;
+    }
+
+    public long getTokenVisits() {
+        return tokenVisits;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SimulationStatistics[ticks=%d, fishSent=%d, fishReceived=%d, tokenVisits=%d]",
+                ticks, fishSent, fishReceived, tokenVisits);
+    }
+}
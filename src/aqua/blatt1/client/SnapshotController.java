@@ -12,6 +12,6 @@ public class SnapshotController implements ActionListener {
 
     @Override
     public void actionPerformed(ActionEvent e) {
-        tankModel.initiateSnapshot();
+        tankModel.post(tankModel::initiateSnapshot);
     }
 }
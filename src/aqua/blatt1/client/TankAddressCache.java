@@ -0,0 +1,78 @@
+package aqua.blatt1.client;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Bounded cache of resolved tank addresses, so fish from the same foreign tank need one name resolution at the
+ * broker instead of one per fish. Entries expire after a time to live, the least recently used entry is evicted
+ * when the cache is full. Thread-safe.
+ */
+
+public class TankAddressCache {
+
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final long DEFAULT_TIME_TO_LIVE = 30_000; // 30 seconds
+
+    private final long timeToLive;
+    private final Map<String, Entry> entries;
+    private long hits;
+    private long misses;
+
+    public TankAddressCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_TIME_TO_LIVE);
+    }
+
+    public TankAddressCache(int capacity, long timeToLive) {
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /*
+     * Returns the cached address of the tank or null if it is unknown or expired.
+     */
+    public synchronized InetSocketAddress get(String tankId) {
+        final Entry entry = entries.get(tankId);
+        if (entry == null || entry.expiresAt < System.currentTimeMillis()) {
+            if (entry != null)
+                entries.remove(tankId);
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.address;
+    }
+
+    public synchronized void put(String tankId, InetSocketAddress address) {
+        entries.put(tankId, new Entry(address, System.currentTimeMillis() + timeToLive));
+    }
+
+    /*
+     * Drops every tank at the address, e.g. because it left the ring or a new tank took its place.
+     */
+    public synchronized void invalidate(InetSocketAddress address) {
+        entries.values().removeIf(entry -> entry.address.equals(address));
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TankAddressCache[size=" + entries.size() + ", hits=" + hits + ", misses=" + misses + "]";
+    }
+
+    private record Entry(InetSocketAddress address, long expiresAt) {
+    }
+}
@@ -0,0 +1,169 @@
+package aqua.blatt1.client;
+
+import aqua.blatt7.endpoint.KeyPairs;
+import aqua.blatt7.endpoint.MultiplexedEndpoint;
+import aqua.blatt7.endpoint.SecureEndpoint;
+import messaging.Message;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/*
+ * Runs many headless tanks in one process. The tanks share a scheduler which runs their ticks and lease renewals,
+ * and a MultiplexedEndpoint whose single thread receives the messages of all of them. Messages are decrypted by the
+ * tick of their tank, so receiving never waits for cryptography. Prints the throughput of all tanks periodically,
+ * and deregisters them when the process is terminated.
+ *
+ * Every tank generates a key pair of its own. With aqua.host.sharedkey=true all tanks of the host use one key pair
+ * instead, which saves the key generation when starting many tanks for an experiment, but lets every tank decrypt
+ * what is sent to the others and must not be used where the tanks do not trust each other.
+ * Usage: TankHost [tanks] [fish] [tickMillis] [threads] [reportSeconds]
+ */
+
+public class TankHost {
+
+    private final List<TankModel> tanks = new ArrayList<>();
+    private final MultiplexedEndpoint multiplexer = new MultiplexedEndpoint();
+    private final ScheduledExecutorService scheduler;
+    private final KeyPair sharedKeyPair = Boolean.getBoolean("aqua.host.sharedkey") ? newKeyPair() : null;
+
+    public TankHost(int threads) {
+        scheduler = Executors.newScheduledThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "TankHost");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final int tanks = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        final int fish = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        final long tickMillis = args.length > 2 ? Long.parseLong(args[2]) : TankModel.TICK_MILLIS;
+        final int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        final int reportSeconds = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+        final TankHost host = new TankHost(threads);
+        for (int i = 0; i < tanks; i++)
+            host.startTank(fish, tickMillis);
+        Runtime.getRuntime().addShutdownHook(new Thread(host::finish));
+
+        final Reporter reporter = new Reporter(host.tanks, reportSeconds);
+        while (true) {
+            TimeUnit.SECONDS.sleep(reportSeconds);
+            reporter.run();
+        }
+    }
+
+    public TankModel startTank(int fish, long tickMillis) {
+        final Inbox inbox = new Inbox();
+        final SecureEndpoint endpoint = new SecureEndpoint(multiplexer.open(inbox), SecureEndpoint.Mode.SESSION,
+                sharedKeyPair != null ? sharedKeyPair : newKeyPair());
+        final ClientCommunicator communicator = new ClientCommunicator(endpoint);
+        final TankModel tankModel = new TankModel(communicator.newClientForwarder(), fish, tickMillis, scheduler);
+        inbox.connect(tankModel, communicator, endpoint);
+
+        synchronized (tanks) {
+            tanks.add(tankModel);
+        }
+        tankModel.start();
+        return tankModel;
+    }
+
+    private static KeyPair newKeyPair() {
+        return KeyPairs.generate(SecureEndpoint.keySize(SecureEndpoint.Mode.SESSION));
+    }
+
+    public void finish() {
+        synchronized (tanks) {
+            tanks.forEach(TankModel::finishAsync);
+            tanks.forEach(TankModel::finish);
+        }
+    }
+
+    /*
+     * Passes the messages of one link to its tank, which decrypts and handles them in its next tick.
+     */
+    private static class Inbox implements Consumer<Message> {
+        private volatile TankModel tankModel;
+        private volatile ClientCommunicator communicator;
+        private volatile SecureEndpoint endpoint;
+
+        void connect(TankModel tankModel, ClientCommunicator communicator, SecureEndpoint endpoint) {
+            this.communicator = communicator;
+            this.endpoint = endpoint;
+            this.tankModel = tankModel;
+        }
+
+        @Override
+        public void accept(Message message) {
+            final TankModel tankModel = this.tankModel;
+            // nobody knows the address before the tank registered
+            if (tankModel == null)
+                return;
+            tankModel.post(() -> {
+                final Message decrypted = endpoint.accept(message);
+                if (decrypted != null)
+                    communicator.handle(tankModel, decrypted);
+            });
+        }
+    }
+
+    /*
+     * Prints the rates of all tanks since the previous report and the totals of their address caches.
+     */
+    private static class Reporter implements Runnable {
+        private final List<TankModel> tanks;
+        private final int seconds;
+        private long ticks;
+        private long fishSent;
+        private long fishReceived;
+        private long tokenVisits;
+
+        Reporter(List<TankModel> tanks, int seconds) {
+            this.tanks = tanks;
+            this.seconds = seconds;
+        }
+
+        @Override
+        public void run() {
+            long ticks = 0;
+            long fishSent = 0;
+            long fishReceived = 0;
+            long tokenVisits = 0;
+            long addressHits = 0;
+            long addressMisses = 0;
+            int registered = 0;
+            final int size;
+            synchronized (tanks) {
+                size = tanks.size();
+                for (TankModel tankModel : tanks) {
+                    final SimulationStatistics statistics = tankModel.getStatistics();
+                    ticks += statistics.getTicks();
+                    fishSent += statistics.getFishSent();
+                    fishReceived += statistics.getFishReceived();
+                    tokenVisits += statistics.getTokenVisits();
+                    addressHits += tankModel.getAddressCache().getHits();
+                    addressMisses += tankModel.getAddressCache().getMisses();
+                    if (tankModel.getId() != null)
+                        registered++;
+                }
+            }
+
+            System.out.printf("%d/%d tanks registered, %.1f ticks/s, %.1f fish/s out, %.1f fish/s in, "
+                            + "%.1f token visits/s, address cache %d hits/%d misses%n", registered, size,
+                    (double) (ticks - this.ticks) / seconds, (double) (fishSent - this.fishSent) / seconds,
+                    (double) (fishReceived - this.fishReceived) / seconds, (double) (tokenVisits - this.tokenVisits) / seconds,
+                    addressHits, addressMisses);
+
+            this.ticks = ticks;
+            this.fishSent = fishSent;
+            this.fishReceived = fishReceived;
+            this.tokenVisits = tokenVisits;
+        }
+    }
+}
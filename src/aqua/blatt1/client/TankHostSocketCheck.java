@@ -0,0 +1,51 @@
+package aqua.blatt1.client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/*
+ * Starts tanks in a TankHost and fails if a tank costs more than the one socket of its link, e.g. because an
+ * endpoint keeps the unused socket of messaging.Endpoint open. Counts the open sockets of the process in /proc, so
+ * it only runs on Linux. The tanks share a key pair, as key generation is irrelevant here.
+ * Usage: TankHostSocketCheck [tanks]
+ */
+
+public class TankHostSocketCheck {
+
+    private static final Path FILE_DESCRIPTORS = Path.of("/proc/self/fd");
+
+    public static void main(String[] args) throws IOException {
+        final int tanks = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        if (!Files.isDirectory(FILE_DESCRIPTORS))
+            throw new UnsupportedOperationException("No " + FILE_DESCRIPTORS + " to count sockets in");
+        System.setProperty("aqua.host.sharedkey", "true");
+
+        final TankHost host = new TankHost(1);
+        // the first channel also opens a socket of the JDK which is kept for the process
+        host.startTank(1, TankModel.TICK_MILLIS);
+        final long before = countSockets();
+        for (int i = 0; i < tanks; i++)
+            host.startTank(1, TankModel.TICK_MILLIS);
+        final long sockets = countSockets() - before;
+        host.finish();
+
+        if (sockets > tanks)
+            throw new AssertionError(sockets + " sockets for " + tanks + " tanks");
+        System.out.println(sockets + " sockets for " + tanks + " tanks");
+    }
+
+    private static long countSockets() throws IOException {
+        try (Stream<Path> descriptors = Files.list(FILE_DESCRIPTORS)) {
+            return descriptors.filter(descriptor -> {
+                try {
+                    return Files.readSymbolicLink(descriptor).toString().startsWith("socket:");
+                } catch (IOException e) {
+                    // the descriptor of the listing itself is closed meanwhile
+                    return false;
+                }
+            }).count();
+        }
+    }
+}
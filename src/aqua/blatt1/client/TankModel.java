@@ -6,52 +6,153 @@ import aqua.blatt1.common.msgtypes.NameResolutionResponse;
 
 import java.net.InetSocketAddress;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * The model is confined to the simulation thread which runs run(), or to the ticks scheduled by start(), which never
+ * overlap. Other threads, i.e. the ClientReceiver and the GUI, post their events, which the simulation thread runs at
+ * the start of the next tick. Only the fish set, the id and whether the token is held are read by other threads.
+ */
 
 public class TankModel extends Observable implements Iterable<FishModel> {
 
     public static final int WIDTH = 600;
     public static final int HEIGHT = 350;
     protected static final int MAX_FISHIES = 5;
+    protected static final int TICK_MILLIS = 10;
+    /*
+     * Ticks before reaching the edge at which a fish is handed off ahead of time, 0 hands it off at the edge. The
+     * neighbor shows it when it crosses, which hides handoff latency up to this many ticks as long as the clocks of
+     * the tanks agree.
+     */
+    protected static final int HANDOFF_LEAD_TICKS = Integer.getInteger("aqua.handoff.lead", 0);
+    /*
+     * The token is kept while a fish is at most this many ticks away from leaving, but never longer than the
+     * maximum hold time. Without such fish it is passed on after the hold time, which starts at the minimum and
+     * doubles up to the idle maximum every time the token leaves a tank without a fish having asked for it, so an
+     * idle ring passes it on a few times per second instead of spinning it.
+     */
+    protected static final int TOKEN_DEMAND_TICKS = HANDOFF_LEAD_TICKS + 25;
+    protected static final long MIN_TOKEN_HOLD_MILLIS = 50;
+    protected static final long MAX_IDLE_TOKEN_HOLD_MILLIS = 200;
+    protected static final long MAX_TOKEN_HOLD_MILLIS = 2000;
+    // a registration or the key exchange before it may get lost, e.g. while many tanks start at once
+    protected static final long REGISTER_RETRY_MILLIS = 1000;
+    // a search for a fish which is gone for good comes around again within this time and is dropped
+    protected static final long SEARCH_LAP_MILLIS = 1000;
+    // finish() deregisters the tank itself if the simulation does not tick within this time after the last tick
+    protected static final long FINISH_TIMEOUT_MILLIS = 1000;
+    /*
+     * TOKEN lets only the holder of the single token hand off fish. EDGE gives every edge between two neighbors a
+     * permit of its own, which moves between the two like the token does around the ring, so fish cross disjoint
+     * edges in parallel. The broker's neighbor updates hand out the permits: a tank holds the permit of the edge to
+     * a new right neighbor and loses the one to a replaced left neighbor, which leaves one permit per edge.
+     */
+    protected static final HandoffMode HANDOFF_MODE =
+            HandoffMode.valueOf(System.getProperty("aqua.handoff.mode", HandoffMode.TOKEN.name()));
+    /*
+     * Keeps the fish in primitive arrays instead of FishModel objects, for tanks with very many fish.
+     */
+    protected static final boolean ARRAY_FISH_STORE = Boolean.getBoolean("aqua.fish.arrays");
+    /*
+     * Threads stepping the fish of the array store, populations below ArrayFishPopulation.PARALLEL_THRESHOLD are
+     * always stepped on the simulation thread.
+     */
+    protected static final int FISH_PARALLELISM = Integer.getInteger("aqua.fish.parallelism", 1);
     protected static final Random rand = new Random();
-    protected final Set<FishModel> fishies;
-    protected final Map<String, InetSocketAddress> homeAgent = new HashMap<>();
+    protected final FishPopulation fishies;
+    protected final FishLocationIndex homeAgent = new FishLocationIndex();
+    protected final TankAddressCache addressCache = new TankAddressCache();
     protected final ClientCommunicator.ClientForwarder forwarder;
-    protected String id;
+    private final Queue<Runnable> events = new ConcurrentLinkedQueue<>();
+    protected volatile String id;
     protected int fishCounter = 0;
     protected InetSocketAddress leftNeighbor;
     protected InetSocketAddress rightNeighbor;
-    protected boolean hasToken = false;
-    protected Timer timer = new Timer();
+    protected final Permit token = new Permit();
+    protected final Permit leftPermit = new Permit();
+    protected final Permit rightPermit = new Permit();
+    protected final ScheduledExecutorService scheduler;
+    private volatile ScheduledFuture<?> leaseRenewal;
+    private volatile ScheduledFuture<?> ticks;
+    private final CompletableFuture<Void> finished = new CompletableFuture<>();
     protected boolean hasSnapshotToken = false;
-    HashSet<FishModel> globalSnapshot;
+    protected final TokenStatistics tokenStatistics = new TokenStatistics();
+    protected final SimulationStatistics statistics = new SimulationStatistics();
+    protected final int initialFishies;
+    protected final int maxFishies;
+    protected final long tickMillis;
+    private final List<FishModel> leftDepartures = new ArrayList<>();
+    private final List<FishModel> rightDepartures = new ArrayList<>();
+    private final List<FishModel> leftEarlyDepartures = new ArrayList<>();
+    private final List<FishModel> rightEarlyDepartures = new ArrayList<>();
+    private final FishPopulation.Handoffs handoffs = new TickHandoffs();
+    private long tickTime;
+    private long registeredAt;
+    private final Map<String, Long> forwardedSearches = new HashMap<>();
+    private final Queue<PendingArrival> pendingArrivals =
+            new PriorityQueue<>(Comparator.comparingLong(PendingArrival::arrivalTime));
+    volatile HashSet<FishModel> globalSnapshot;
     private Set<FishModel> localSnapshot;
     private SnapshotStates snapshotRecordingState = SnapshotStates.IDLE;
     private boolean initiatedSnapshot = false;
 
     public TankModel(ClientCommunicator.ClientForwarder forwarder) {
-        this.fishies = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        this(forwarder, 1, TICK_MILLIS);
+    }
+
+    /*
+     * Starts with the given number of fish once registered and ticks every tickMillis, 0 ticks as fast as possible.
+     * Early handoffs assume that all tanks of the ring tick at the same rate.
+     */
+    public TankModel(ClientCommunicator.ClientForwarder forwarder, int initialFishies, long tickMillis) {
+        this(forwarder, initialFishies, tickMillis, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "TankModel timer");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /*
+     * Schedules the lease renewal and, if started with start(), the ticks on the scheduler, which may be shared by
+     * many tanks.
+     */
+    public TankModel(ClientCommunicator.ClientForwarder forwarder, int initialFishies, long tickMillis,
+                     ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        this.initialFishies = initialFishies;
+        this.maxFishies = Math.max(MAX_FISHIES, initialFishies);
+        this.tickMillis = tickMillis;
+        this.fishies = ARRAY_FISH_STORE
+                ? new ArrayFishPopulation(HANDOFF_LEAD_TICKS, FISH_PARALLELISM)
+                : new ObjectFishPopulation(HANDOFF_LEAD_TICKS);
         this.forwarder = forwarder;
     }
 
-    synchronized void onRegistration(String id, InetSocketAddress leftNeighbor, InetSocketAddress rightNeighbor, int leaseDuration) {
+    void onRegistration(String id, InetSocketAddress leftNeighbor, InetSocketAddress rightNeighbor, int leaseDuration) {
         this.id = id;
         this.updateNeighbors(leftNeighbor, rightNeighbor);
-        if (fishCounter == 0)
+        if (fishCounter == 0) {
             newFish(WIDTH - FishModel.getXSize(), rand.nextInt(HEIGHT - FishModel.getYSize()));
+            for (int i = 1; i < initialFishies; i++)
+                newFish(rand.nextInt(WIDTH - FishModel.getXSize()), rand.nextInt(HEIGHT - FishModel.getYSize()));
+        }
 
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                forwarder.register();
-            }
-        }, leaseDuration / 2);
+        // the broker answers a renewal for an unknown lease with a new registration, so one renewal is enough
+        if (leaseRenewal == null)
+            leaseRenewal = scheduler.scheduleAtFixedRate(() -> post(() -> forwarder.renewLease(getId())),
+                    leaseDuration / 2, leaseDuration / 2, TimeUnit.MILLISECONDS);
     }
 
-    public synchronized void newFish(int x, int y) {
-        if (fishies.size() < MAX_FISHIES) {
+    public void newFish(int x, int y) {
+        if (fishies.size() < maxFishies) {
             x = Math.min(x, WIDTH - FishModel.getXSize() - 1);
             y = Math.min(y, HEIGHT - FishModel.getYSize());
 
@@ -60,21 +161,60 @@ public class TankModel extends Observable implements Iterable<FishModel> {
                     rand.nextBoolean() ? Direction.LEFT : Direction.RIGHT);
 
             fishies.add(fish);
-            homeAgent.put(fishId, null);
+            homeAgent.markHome(fishId);
         }
     }
 
-    synchronized void receiveFish(FishModel fish) {
+    void receiveFish(FishModel fish) {
+        recordIfInChannel(fish);
+        acceptFish(fish);
+    }
+
+    /*
+     * A fish received while recording the channel it came over belongs to the state of that channel.
+     */
+    private void recordIfInChannel(FishModel fish) {
         switch (fish.getDirection()) {
             case LEFT -> addToSnapshotIfState(SnapshotStates.RIGHT, fish);
             case RIGHT -> addToSnapshotIfState(SnapshotStates.LEFT, fish);
         }
+    }
+
+    private void acceptFish(FishModel fish) {
         fish.setToStart();
         fishies.add(fish);
+        statistics.recordFishReceived();
         if (fish.getTankId().equals(getId()))
-            homeAgent.put(fish.getId(), null);
+            homeAgent.markHome(fish.getId());
         else
-            forwarder.sendNameResolutionRequest(fish.getTankId(), fish.getId());
+            reportLocation(fish.getId());
+    }
+
+    private void reportLocation(String fishId) {
+        final String homeTankId = FishModel.tankIdOf(fishId);
+        final InetSocketAddress homeTank = addressCache.get(homeTankId);
+        if (homeTank != null)
+            forwarder.sendLocationUpdate(homeTank, fishId);
+        else
+            forwarder.sendNameResolutionRequest(homeTankId, fishId);
+    }
+
+    void receiveFishies(List<FishModel> fishies) {
+        for (FishModel fish : fishies)
+            receiveFish(fish);
+    }
+
+    /*
+     * Fish handed off ahead of time are kept back until they cross the edge. For snapshots they count as received
+     * when they arrive, as a marker sent after them arrives after them too.
+     */
+    void receiveFishies(List<FishModel> fishies, long arrivalTime) {
+        if (arrivalTime <= System.currentTimeMillis()) {
+            receiveFishies(fishies);
+            return;
+        }
+        fishies.forEach(this::recordIfInChannel);
+        pendingArrivals.add(new PendingArrival(arrivalTime, fishies));
     }
 
     private void addToSnapshotIfState(SnapshotStates onState, FishModel fish) {
@@ -86,82 +226,229 @@ public class TankModel extends Observable implements Iterable<FishModel> {
         return id;
     }
 
-    public synchronized int getFishCounter() {
+    public TokenStatistics getTokenStatistics() {
+        return tokenStatistics;
+    }
+
+    public SimulationStatistics getStatistics() {
+        return statistics;
+    }
+
+    public TankAddressCache getAddressCache() {
+        return addressCache;
+    }
+
+    public int getFishCounter() {
         return fishCounter;
     }
 
-    public synchronized Iterator<FishModel> iterator() {
+    public Iterator<FishModel> iterator() {
         return fishies.iterator();
     }
 
-    private synchronized void updateFishies() {
-        for (Iterator<FishModel> it = iterator(); it.hasNext(); ) {
-            FishModel fish = it.next();
+    private void updateFishies() {
+        final long now = System.currentTimeMillis();
+        tickTime = now;
+        while (!pendingArrivals.isEmpty() && pendingArrivals.peek().arrivalTime() <= now)
+            pendingArrivals.poll().fishies().forEach(this::acceptFish);
+
+        fishies.step(handoffs);
+
+        // one message per neighbor for all fish leaving in this tick
+        handOff(leftDepartures, leftNeighbor, 0);
+        handOff(rightDepartures, rightNeighbor, 0);
+        final long arrivalTime = now + HANDOFF_LEAD_TICKS * tickMillis;
+        handOff(leftEarlyDepartures, leftNeighbor, arrivalTime);
+        handOff(rightEarlyDepartures, rightNeighbor, arrivalTime);
+
+        switch (HANDOFF_MODE) {
+            case TOKEN -> {
+                if (token.held && !keep(token, null, now)) {
+                    token.held = false;
+                    forwarder.handOffToken(rightNeighbor);
+                }
+            }
+            case EDGE -> {
+                if (leftPermit.held && !keep(leftPermit, Direction.LEFT, now)) {
+                    leftPermit.held = false;
+                    forwarder.handOffEdgePermit(Direction.LEFT, leftNeighbor);
+                }
+                if (rightPermit.held && !keep(rightPermit, Direction.RIGHT, now)) {
+                    rightPermit.held = false;
+                    forwarder.handOffEdgePermit(Direction.RIGHT, rightNeighbor);
+                }
+            }
+        }
+    }
+
+    private boolean mayHandOff(Direction direction) {
+        return switch (HANDOFF_MODE) {
+            case TOKEN -> token.held;
+            case EDGE -> permit(direction).held;
+        };
+    }
 
-            fish.update();
+    private Permit permit(Direction direction) {
+        return direction == Direction.LEFT ? leftPermit : rightPermit;
+    }
 
-            if (fish.hitsEdge()) {
-                if (hasToken())
-                    forwarder.handOff(fish, switch (fish.getDirection()) {
-                        case LEFT -> leftNeighbor;
-                        case RIGHT -> rightNeighbor;
-                    });
-                else
-                    fish.reverse();
-            }
+    // the permit a fish swimming in the direction needs to leave
+    private Permit demandedPermit(Direction direction) {
+        return HANDOFF_MODE == HandoffMode.TOKEN ? token : permit(direction);
+    }
 
-            if (fish.disappears())
-                it.remove();
+    /*
+     * The permit is kept for its hold time and then as long as a fish swimming in the direction, any direction if
+     * null, is about to leave, up to the maximum hold time. Adapts the hold time when the permit is passed on.
+     */
+    private boolean keep(Permit permit, Direction direction, long now) {
+        final long heldFor = now - permit.receivedAt;
+        if (heldFor < permit.holdMillis)
+            return true;
+        if (heldFor < MAX_TOKEN_HOLD_MILLIS && fishies.anyAboutToLeave(direction, TOKEN_DEMAND_TICKS)) {
+            permit.demanded = true;
+            return true;
         }
+        permit.holdMillis = permit.demanded
+                ? MIN_TOKEN_HOLD_MILLIS
+                : Math.min(2 * permit.holdMillis, MAX_IDLE_TOKEN_HOLD_MILLIS);
+        permit.demanded = false;
+        return false;
+    }
+
+    private void handOff(List<FishModel> departures, InetSocketAddress neighbor, long arrivalTime) {
+        if (departures.isEmpty())
+            return;
+        forwarder.handOff(departures, neighbor, arrivalTime);
+        statistics.recordFishSent(departures.size());
+        departures.clear();
+    }
+
+    /*
+     * Runs the event on the simulation thread before the next tick. Never blocks.
+     */
+    public void post(Runnable event) {
+        events.add(event);
     }
 
-    private synchronized void update() {
+    private void register() {
+        registeredAt = System.currentTimeMillis();
+        forwarder.register();
+    }
+
+    void update() {
+        // events after the deregistration are dropped, e.g. a token which the broker then believes to be lost
+        for (Runnable event; !finished.isDone() && (event = events.poll()) != null; )
+            event.run();
+        if (finished.isDone())
+            return;
+        if (id == null && System.currentTimeMillis() - registeredAt >= REGISTER_RETRY_MILLIS)
+            register();
         updateFishies();
+        statistics.recordTick();
         setChanged();
         notifyObservers();
     }
 
     protected void run() {
-        forwarder.register();
+        register();
 
         try {
-            while (!Thread.currentThread().isInterrupted()) {
+            while (!finished.isDone() && !Thread.currentThread().isInterrupted()) {
                 update();
-                TimeUnit.MILLISECONDS.sleep(10);
+                TimeUnit.MILLISECONDS.sleep(tickMillis);
             }
         } catch (InterruptedException consumed) {
             // allow method to terminate
         }
     }
 
-    public synchronized void finish() {
-        forwarder.deregister(id, hasToken());
+    /*
+     * Runs the tank on the scheduler instead of a thread of its own, ticking at least every millisecond.
+     */
+    public void start() {
+        register();
+        ticks = scheduler.scheduleWithFixedDelay(this::update, 0, Math.max(tickMillis, 1), TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Deregisters the tank on the simulation thread and waits for it, see finishAsync(). Deregisters it on the
+     * calling thread if the simulation does not tick in time, e.g. because it was never started or has stopped.
+     */
+    public void finish() {
+        try {
+            finishAsync().get(FINISH_TIMEOUT_MILLIS + tickMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            deregister();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * Stops the simulation after its next tick and deregisters the tank, e.g. to finish many tanks on a shared
+     * scheduler at once. The tick runs no further events and lease renewals, and whether the token is held cannot
+     * change while the broker is told about it.
+     */
+    public CompletableFuture<Void> finishAsync() {
+        post(this::deregister);
+        return finished;
     }
 
-    synchronized void updateNeighbors(InetSocketAddress leftNeighbor, InetSocketAddress rightNeighbor) {
-        if (leftNeighbor != null)
+    private synchronized void deregister() {
+        if (finished.isDone())
+            return;
+        // a renewal already posted is not run anymore, a scheduled one would register the tank again
+        if (leaseRenewal != null)
+            leaseRenewal.cancel(false);
+        if (ticks != null)
+            ticks.cancel(false);
+        forwarder.deregister(id, token.held);
+        token.held = false;
+        fishies.close();
+        finished.complete(null);
+    }
+
+    void updateNeighbors(InetSocketAddress leftNeighbor, InetSocketAddress rightNeighbor) {
+        // a replaced neighbor may have left, so its address is no longer trusted
+        if (leftNeighbor != null && !leftNeighbor.equals(this.leftNeighbor)) {
+            if (this.leftNeighbor != null)
+                addressCache.invalidate(this.leftNeighbor);
             this.leftNeighbor = leftNeighbor;
-        if (rightNeighbor != null)
+            leftPermit.held = false;
+        }
+        if (rightNeighbor != null && !rightNeighbor.equals(this.rightNeighbor)) {
+            if (this.rightNeighbor != null)
+                addressCache.invalidate(this.rightNeighbor);
             this.rightNeighbor = rightNeighbor;
+            rightPermit.grant();
+        }
     }
 
     public boolean hasToken() {
-        return hasToken;
+        return token.held;
     }
 
-    public synchronized void receiveToken() {
-        final int DELAY = 2000; // 2 seconds
-
-        if (!hasToken)
-            this.timer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    hasToken = false;
-                    forwarder.handOffToken(rightNeighbor);
-                }
-            }, DELAY);
+    /*
+     * The token is passed on by the simulation tick, as soon as no fish is about to leave.
+     */
+    public void receiveToken() {
+        if (!token.held)
+            token.receive();
+    }
 
-        this.hasToken = true;
+    /*
+     * A permit from a tank which is no longer the neighbor on that side belongs to an edge which does not exist
+     * anymore and is dropped.
+     */
+    void receiveEdgePermit(InetSocketAddress sender, Direction direction) {
+        // a permit travelling right arrives on the left edge
+        final Permit permit = direction == Direction.RIGHT ? leftPermit : rightPermit;
+        final InetSocketAddress neighbor = direction == Direction.RIGHT ? leftNeighbor : rightNeighbor;
+        if (sender.equals(neighbor) && !permit.held)
+            permit.receive();
     }
 
     void initiateSnapshot() {
@@ -175,8 +462,14 @@ public class TankModel extends Observable implements Iterable<FishModel> {
         initiatedSnapshot = true;
     }
 
+    /*
+     * The local state: the fish in the tank and the fish received ahead of time which did not cross the edge yet.
+     */
     private Set<FishModel> getNonDepartingFishies() {
-        return fishies.stream().filter(fish -> !fish.isDeparting()).collect(Collectors.toSet());
+        final Set<FishModel> state = fishies.nonDeparting();
+        for (PendingArrival arrival : pendingArrivals)
+            state.addAll(arrival.fishies());
+        return state;
     }
 
     public void receiveSnapshotMarker(InetSocketAddress sender) {
@@ -221,27 +514,115 @@ public class TankModel extends Observable implements Iterable<FishModel> {
         }
     }
 
+    /*
+     * Asks the tank the home agent knows for the fish. A fish which is neither known nor at home is searched around
+     * the ring, as the home agent forgets fish which stayed abroad for long.
+     */
     public void locateFishGlobally(String fishId) {
-        final InetSocketAddress tankAddress = homeAgent.get(fishId);
-        if (tankAddress == null)
-            locateFishLocally(fishId);
-        else
+        final InetSocketAddress tankAddress = homeAgent.locate(fishId);
+        if (tankAddress != null)
             forwarder.sendLocationRequest(fishId, tankAddress);
+        else if (!fishies.toggle(fishId) && rightNeighbor != null)
+            forwarder.sendLocationRequest(fishId, rightNeighbor);
+    }
+
+    /*
+     * A request for a fish which is not here, because it moved on or the home agent lost track of it, travels on to
+     * the right until it reaches the fish or the home tank of the fish. The tank which has the fish tells the home
+     * agent again.
+     */
+    void receiveLocationRequest(String fishId) {
+        if (fishies.toggle(fishId)) {
+            if (!FishModel.tankIdOf(fishId).equals(getId()))
+                reportLocation(fishId);
+            return;
+        }
+        if (FishModel.tankIdOf(fishId).equals(getId()) || rightNeighbor == null)
+            return;
+
+        // without its home tank, the search would go around the ring forever
+        final long now = System.currentTimeMillis();
+        forwardedSearches.values().removeIf(forwardedAt -> now - forwardedAt >= SEARCH_LAP_MILLIS);
+        if (forwardedSearches.putIfAbsent(fishId, now) == null)
+            forwarder.sendLocationRequest(fishId, rightNeighbor);
     }
 
     public void receiveNameResolutionResponse(NameResolutionResponse response) {
+        // the tank is gone if the broker does not know it anymore
+        if (response.address() == null)
+            return;
+        addressCache.put(FishModel.tankIdOf(response.reqId()), response.address());
         forwarder.sendLocationUpdate(response.address(), response.reqId());
     }
 
     public void receiveLocationUpdate(InetSocketAddress sender, String reqId) {
-        homeAgent.put(reqId, sender);
+        homeAgent.update(reqId, sender);
+    }
+
+    private record PendingArrival(long arrivalTime, List<FishModel> fishies) {
+    }
+
+    /*
+     * Collects the fish leaving in a tick per neighbor and records edge waits.
+     */
+    private class TickHandoffs implements FishPopulation.Handoffs {
+
+        @Override
+        public boolean mayHandOff(Direction direction) {
+            return TankModel.this.mayHandOff(direction);
+        }
+
+        @Override
+        public void depart(FishModel fish, boolean early) {
+            demandedPermit(fish.getDirection()).demanded = true;
+            final boolean left = fish.getDirection() == Direction.LEFT;
+            if (early)
+                (left ? leftEarlyDepartures : rightEarlyDepartures).add(fish);
+            else
+                (left ? leftDepartures : rightDepartures).add(fish);
+        }
+
+        @Override
+        public void blocked(Direction direction) {
+            final Permit permit = demandedPermit(direction);
+            permit.demanded = true;
+            if (permit.waitSince == 0)
+                permit.waitSince = tickTime;
+        }
     }
 
-    public void locateFishLocally(String fishId) {
-        fishies.stream()
-                .filter(fish -> fish.getId().equals(fishId))
-                .findFirst()
-                .ifPresent(FishModel::toggle);
+    protected enum HandoffMode {
+        TOKEN,
+        EDGE
+    }
+
+    /*
+     * The token or the permit of one edge, guarded by the TankModel.
+     */
+    protected class Permit {
+        volatile boolean held;
+        long receivedAt;
+        long waitSince;
+        long holdMillis = MIN_TOKEN_HOLD_MILLIS;
+        // a fish left with the permit or waited for it since the permit was last passed on
+        boolean demanded;
+
+        void receive() {
+            final long now = System.currentTimeMillis();
+            if (receivedAt != 0)
+                tokenStatistics.recordRoundTrip(now - receivedAt);
+            if (waitSince != 0) {
+                tokenStatistics.recordEdgeWait(now - waitSince);
+                waitSince = 0;
+            }
+            statistics.recordTokenVisit();
+            grant();
+        }
+
+        void grant() {
+            held = true;
+            receivedAt = System.currentTimeMillis();
+        }
     }
 
     private enum SnapshotStates {
@@ -26,7 +26,7 @@ public class TankView extends JPanel implements Observer {
         addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
-                tankModel.newFish(e.getX(), e.getY());
+                tankModel.post(() -> tankModel.newFish(e.getX(), e.getY()));
             }
         });
     }
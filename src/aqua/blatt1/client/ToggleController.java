@@ -14,6 +14,6 @@ public class ToggleController implements ActionListener {
 
     @Override
     public void actionPerformed(ActionEvent e) {
-        tankModel.locateFishGlobally(fishId);
+        tankModel.post(() -> tankModel.locateFishGlobally(fishId));
     }
 }
@@ -0,0 +1,67 @@
+package aqua.blatt1.client;
+
+/*
+ * Token round trip times, i.e. the time between two visits of the token, and edge wait times, i.e. the time from a
+ * fish turning around at an edge for the lack of the token until the token arrived. Thread-safe.
+ */
+
+public class TokenStatistics {
+
+    private final Series roundTrip = new Series();
+    private final Series edgeWait = new Series();
+
+    synchronized void recordRoundTrip(long millis) {
+        roundTrip.record(millis);
+    }
+
+    synchronized void recordEdgeWait(long millis) {
+        edgeWait.record(millis);
+    }
+
+    public synchronized long getRoundTrips() {
+        return roundTrip.count;
+    }
+
+    public synchronized double getMeanRoundTripMillis() {
+        return roundTrip.mean();
+    }
+
+    public synchronized long getMaxRoundTripMillis() {
+        return roundTrip.max;
+    }
+
+    public synchronized long getEdgeWaits() {
+        return edgeWait.count;
+    }
+
+    public synchronized double getMeanEdgeWaitMillis() {
+        return edgeWait.mean();
+    }
+
+    public synchronized long getMaxEdgeWaitMillis() {
+        return edgeWait.max;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("TokenStatistics[roundTrips=%d, meanRoundTrip=%.1fms, maxRoundTrip=%dms, "
+                        + "edgeWaits=%d, meanEdgeWait=%.1fms, maxEdgeWait=%dms]",
+                roundTrip.count, roundTrip.mean(), roundTrip.max, edgeWait.count, edgeWait.mean(), edgeWait.max);
+    }
+
+    private static class Series {
+        long count;
+        long sum;
+        long max;
+
+        void record(long value) {
+            count++;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+    }
+}
@@ -18,10 +18,15 @@ public final class FishModel implements Serializable {
     private boolean toggled;
 
     public FishModel(String id, int x, int y, Direction direction) {
+        this(id, x, y, direction, false);
+    }
+
+    public FishModel(String id, int x, int y, Direction direction, boolean toggled) {
         this.id = id;
         this.x = x;
         this.y = y;
         this.direction = direction;
+        this.toggled = toggled;
     }
 
     public static int getXSize() {
@@ -36,8 +41,12 @@ public final class FishModel implements Serializable {
         return id;
     }
 
+    public static String tankIdOf(String fishId) {
+        return fishId.substring(fishId.indexOf("@") + 1);
+    }
+
     public String getTankId() {
-        return id.substring(id.indexOf("@") + 1);
+        return tankIdOf(id);
     }
 
     public int getX() {
@@ -69,6 +78,13 @@ public final class FishModel implements Serializable {
                 || (direction == Direction.RIGHT && x == TankModel.WIDTH - xSize);
     }
 
+    /*
+     * Returns the number of updates until the fish hits the edge it swims towards, negative if it is departing.
+     */
+    public int ticksToEdge() {
+        return direction == Direction.LEFT ? x : TankModel.WIDTH - xSize - x;
+    }
+
     public boolean disappears() {
         return (direction == Direction.LEFT && x == -xSize)
                 || (direction == Direction.RIGHT && x == TankModel.WIDTH);
@@ -0,0 +1,59 @@
+package aqua.blatt1.common.codec;
+
+import messaging.Endpoint;
+import messaging.Message;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+
+/*
+ * Unencrypted endpoint that sends payloads in the compact WireCodec format.
+ */
+
+public class CodecEndpoint extends Endpoint {
+
+    private final Endpoint endpoint;
+
+    public CodecEndpoint() {
+        this((Integer) null);
+    }
+
+    public CodecEndpoint(Integer port) {
+        this(port != null ? new Endpoint(port) : new Endpoint());
+    }
+
+    public CodecEndpoint(Endpoint endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    public void send(InetSocketAddress receiver, Serializable payload) {
+        try {
+            endpoint.send(receiver, WireCodec.encode(payload));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Message blockingReceive() {
+        return decode(endpoint.blockingReceive());
+    }
+
+    @Override
+    public Message nonBlockingReceive() {
+        Message message = endpoint.nonBlockingReceive();
+        return message != null ? decode(message) : null;
+    }
+
+    private Message decode(Message message) {
+        if (!(message.getPayload() instanceof byte[] encoded))
+            return message;
+        try {
+            return new Message(WireCodec.decode(encoded), message.getSender());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
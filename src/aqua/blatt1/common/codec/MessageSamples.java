@@ -0,0 +1,58 @@
+package aqua.blatt1.common.codec;
+
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+import aqua.blatt1.common.msgtypes.*;
+import aqua.blatt2.broker.PoisonPill;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/*
+ * One typical instance of every message type, shared by WireCodecCheck and the benchmarks.
+ */
+
+public final class MessageSamples {
+
+    private MessageSamples() {
+    }
+
+    public static List<Serializable> all() throws NoSuchAlgorithmException {
+        final InetSocketAddress left = new InetSocketAddress("127.0.0.1", 50123);
+        final InetSocketAddress right = new InetSocketAddress("127.0.0.1", 50124);
+        final HashSet<FishModel> snapshot = new HashSet<>();
+        for (int i = 1; i <= 10; i++)
+            snapshot.add(new FishModel("fish" + i + "@tank" + i, i * 50 - 100, i * 20, Direction.values()[i % 2], i % 3 == 0));
+
+        final var keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        final var publicKey = keyPairGenerator.generateKeyPair().getPublic();
+
+        return List.of(
+                new RegisterRequest(),
+                new RegisterResponse("tank1", new NeighborUpdate(left, right), 10000),
+                new DeregisterRequest("tank1", true),
+                new HandoffRequest(new FishModel("fish1@tank1", -100, 42, Direction.LEFT, true)),
+                new NeighborUpdate(left, null),
+                new Token(),
+                new SnapshotMarker(),
+                new SnapshotResult(snapshot),
+                new LocationRequest("fish1@tank1"),
+                new LocationUpdate("fish1@tank1"),
+                new NameResolutionRequest("tank1", "fish1@tank1"),
+                new NameResolutionResponse(left, "fish1@tank1"),
+                new KeyExchangeMessage(publicKey),
+                new SessionKeyExchangeMessage(publicKey, new byte[256]),
+                new PoisonPill(),
+                new byte[600],
+                new LeaseRenewal("tank1"),
+                new HandoffBatch(new ArrayList<>(snapshot), System.currentTimeMillis()),
+                new EdgePermit(Direction.LEFT)
+        );
+    }
+}
@@ -0,0 +1,235 @@
+package aqua.blatt1.common.codec;
+
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+import aqua.blatt1.common.msgtypes.*;
+import aqua.blatt2.broker.PoisonPill;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/*
+ * Compact binary encoding of the protocol messages: one tag byte per message followed by its fields, ints as
+ * varints, strings as length prefixed UTF-8. Payloads without a schema are written with Java serialization,
+ * whose stream magic never collides with a tag, so decode handles both.
+ */
+
+public final class WireCodec {
+
+    // tag, fish count and arrival time of a HandoffBatch, at most
+    public static final int HANDOFF_BATCH_OVERHEAD = 1 + 5 + 10;
+
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xAC;
+    private static final int DIRECTION_LEFT = 1;
+    private static final int TOGGLED = 2;
+
+    private static final Schema<?>[] schemasByTag = new Schema<?>[32];
+    private static final Map<Class<?>, Schema<?>> schemasByType = new HashMap<>();
+
+    static {
+        register(1, RegisterRequest.class, (m, out) -> {
+        }, in -> new RegisterRequest());
+        register(2, RegisterResponse.class, (m, out) -> {
+            out.writeString(m.id());
+            writeNeighborUpdate(m.neighborUpdate(), out);
+            out.writeVarInt(m.leaseDuration());
+        }, in -> new RegisterResponse(in.readString(), readNeighborUpdate(in), in.readVarInt()));
+        register(3, DeregisterRequest.class, (m, out) -> {
+            out.writeString(m.id());
+            out.writeBoolean(m.hadToken());
+        }, in -> new DeregisterRequest(in.readString(), in.readBoolean()));
+        register(4, HandoffRequest.class, (m, out) -> writeFish(m.fish(), out),
+                in -> new HandoffRequest(readFish(in)));
+        register(5, NeighborUpdate.class, WireCodec::writeNeighborUpdate, WireCodec::readNeighborUpdate);
+        register(6, Token.class, (m, out) -> {
+        }, in -> new Token());
+        register(7, SnapshotMarker.class, (m, out) -> {
+        }, in -> new SnapshotMarker());
+        register(8, SnapshotResult.class, (m, out) -> {
+            out.writeVarInt(m.snapshotResult().size());
+            for (FishModel fish : m.snapshotResult())
+                writeFish(fish, out);
+        }, in -> {
+            final int size = in.readCount();
+            HashSet<FishModel> fishies = new HashSet<>();
+            for (int i = 0; i < size; i++)
+                fishies.add(readFish(in));
+            return new SnapshotResult(fishies);
+        });
+        register(9, LocationRequest.class, (m, out) -> out.writeString(m.fishId()),
+                in -> new LocationRequest(in.readString()));
+        register(10, LocationUpdate.class, (m, out) -> out.writeString(m.reqId()),
+                in -> new LocationUpdate(in.readString()));
+        register(11, NameResolutionRequest.class, (m, out) -> {
+            out.writeString(m.tankId());
+            out.writeString(m.reqId());
+        }, in -> new NameResolutionRequest(in.readString(), in.readString()));
+        register(12, NameResolutionResponse.class, (m, out) -> {
+            out.writeAddress(m.address());
+            out.writeString(m.reqId());
+        }, in -> new NameResolutionResponse(in.readAddress(), in.readString()));
+        register(13, KeyExchangeMessage.class, (m, out) -> writePublicKey(m.publicKey(), out),
+                in -> new KeyExchangeMessage(readPublicKey(in)));
+        register(14, SessionKeyExchangeMessage.class, (m, out) -> {
+            writePublicKey(m.publicKey(), out);
+            out.writeBytes(m.wrappedSessionKey());
+        }, in -> new SessionKeyExchangeMessage(readPublicKey(in), in.readBytes()));
+        register(15, PoisonPill.class, (m, out) -> {
+        }, in -> new PoisonPill());
+        register(16, byte[].class, (m, out) -> out.writeBytes(m), WireReader::readBytes);
+        register(17, LeaseRenewal.class, (m, out) -> out.writeString(m.id()),
+                in -> new LeaseRenewal(in.readString()));
+        register(18, HandoffBatch.class, (m, out) -> {
+            out.writeVarInt(m.fishies().size());
+            for (FishModel fish : m.fishies())
+                writeFish(fish, out);
+            out.writeVarLong(m.arrivalTime());
+        }, in -> {
+            final int size = in.readCount();
+            ArrayList<FishModel> fishies = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                fishies.add(readFish(in));
+            return new HandoffBatch(fishies, in.readVarLong());
+        });
+        register(19, EdgePermit.class, (m, out) -> out.writeByte(m.direction().ordinal()),
+                in -> new EdgePermit(readDirection(in)));
+    }
+
+    private WireCodec() {
+    }
+
+    public static boolean hasSchema(Serializable payload) {
+        return schemasByType.containsKey(payload.getClass());
+    }
+
+    /*
+     * The number of bytes the fish takes in a HandoffBatch.
+     */
+    public static int encodedSize(FishModel fish) {
+        final int id = fish.getId().getBytes(StandardCharsets.UTF_8).length;
+        return varIntSize(id + 1) + id + varIntSize(zigZag(fish.getX())) + varIntSize(zigZag(fish.getY())) + 1;
+    }
+
+    public static byte[] encode(Serializable payload) throws IOException {
+        WireWriter out = new WireWriter();
+        encode(payload, out);
+        return out.toByteArray();
+    }
+
+    public static void encode(Serializable payload, WireWriter out) throws IOException {
+        @SuppressWarnings("unchecked")
+        Schema<Serializable> schema = (Schema<Serializable>) schemasByType.get(payload.getClass());
+        if (schema == null) {
+            ObjectOutputStream os = new ObjectOutputStream(out);
+            os.writeObject(payload);
+            os.close();
+            return;
+        }
+        out.writeByte(schema.tag());
+        schema.writer().write(payload, out);
+    }
+
+    public static Serializable decode(byte[] data) throws IOException {
+        return decode(data, 0, data.length);
+    }
+
+    public static Serializable decode(byte[] data, int offset, int length) throws IOException {
+        if (length > 0 && (data[offset] & 0xFF) == JAVA_SERIALIZATION_MAGIC) {
+            try (ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(data, offset, length))) {
+                return (Serializable) is.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new InvalidClassException(e.getMessage());
+            }
+        }
+
+        WireReader in = new WireReader(data, offset, length);
+        final int tag = in.readByte();
+        final Schema<? extends Serializable> schema = tag < schemasByTag.length ? schemasByTag[tag] : null;
+        if (schema == null)
+            throw new StreamCorruptedException("Unknown message tag " + tag);
+        return schema.reader().read(in);
+    }
+
+    private static <T extends Serializable> void register(int tag, Class<T> type, Writer<T> writer, Reader<T> reader) {
+        final Schema<T> schema = new Schema<>(tag, writer, reader);
+        schemasByTag[tag] = schema;
+        schemasByType.put(type, schema);
+    }
+
+    private static int varIntSize(int value) {
+        return value == 0 ? 1 : (38 - Integer.numberOfLeadingZeros(value)) / 7;
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static void writeFish(FishModel fish, WireWriter out) {
+        out.writeString(fish.getId());
+        out.writeSignedVarInt(fish.getX());
+        out.writeSignedVarInt(fish.getY());
+        out.writeByte((fish.getDirection() == Direction.LEFT ? DIRECTION_LEFT : 0) | (fish.isToggled() ? TOGGLED : 0));
+    }
+
+    private static FishModel readFish(WireReader in) throws IOException {
+        final String id = in.readString();
+        final int x = in.readSignedVarInt();
+        final int y = in.readSignedVarInt();
+        final int flags = in.readByte();
+        return new FishModel(id, x, y, (flags & DIRECTION_LEFT) != 0 ? Direction.LEFT : Direction.RIGHT,
+                (flags & TOGGLED) != 0);
+    }
+
+    private static Direction readDirection(WireReader in) throws IOException {
+        final int ordinal = in.readByte();
+        final Direction[] directions = Direction.values();
+        if (ordinal >= directions.length)
+            throw new StreamCorruptedException("Unknown direction " + ordinal);
+        return directions[ordinal];
+    }
+
+    private static void writeNeighborUpdate(NeighborUpdate neighborUpdate, WireWriter out) {
+        out.writeAddress(neighborUpdate.leftNeighbor());
+        out.writeAddress(neighborUpdate.rightNeighbor());
+    }
+
+    private static NeighborUpdate readNeighborUpdate(WireReader in) throws IOException {
+        return new NeighborUpdate(in.readAddress(), in.readAddress());
+    }
+
+    private static void writePublicKey(PublicKey publicKey, WireWriter out) {
+        out.writeString(publicKey.getAlgorithm());
+        out.writeBytes(publicKey.getEncoded());
+    }
+
+    private static PublicKey readPublicKey(WireReader in) throws IOException {
+        final String algorithm = in.readString();
+        final byte[] encoded = in.readBytes();
+        if (algorithm == null || encoded == null)
+            throw new StreamCorruptedException("Public key without algorithm or encoding");
+        try {
+            return KeyFactory.getInstance(algorithm).generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (GeneralSecurityException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+    }
+
+    private interface Writer<T> {
+        void write(T message, WireWriter out) throws IOException;
+    }
+
+    private interface Reader<T> {
+        T read(WireReader in) throws IOException;
+    }
+
+    private record Schema<T extends Serializable>(int tag, Writer<T> writer, Reader<T> reader) {
+    }
+}
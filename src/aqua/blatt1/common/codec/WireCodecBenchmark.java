@@ -0,0 +1,52 @@
+package aqua.blatt1.common.codec;
+
+import java.io.*;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/*
+ * Compares size and throughput of the WireCodec with Java serialization for every message type. WireCodecCheck
+ * verifies that the round trips are correct.
+ * Usage: WireCodecBenchmark [iterations]
+ */
+
+public class WireCodecBenchmark {
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException, NoSuchAlgorithmException {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        final List<Serializable> messages = MessageSamples.all();
+
+        System.out.printf("%-26s %8s %8s %12s %12s%n", "message", "java B", "wire B", "java ns/op", "wire ns/op");
+        for (Serializable message : messages) {
+            long javaNanos = 0;
+            long wireNanos = 0;
+            // first pass warms up, second pass measures
+            for (int pass = 0; pass < 2; pass++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++)
+                    javaDeserialize(javaSerialize(message));
+                javaNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++)
+                    WireCodec.decode(WireCodec.encode(message));
+                wireNanos = System.nanoTime() - start;
+            }
+            System.out.printf("%-26s %8d %8d %12.0f %12.0f%n", message.getClass().getSimpleName(),
+                    javaSerialize(message).length, WireCodec.encode(message).length,
+                    (double) javaNanos / iterations, (double) wireNanos / iterations);
+        }
+    }
+
+    private static byte[] javaSerialize(Serializable message) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(baos);
+        os.writeObject(message);
+        os.close();
+        return baos.toByteArray();
+    }
+
+    private static Object javaDeserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+    }
+}
@@ -0,0 +1,62 @@
+package aqua.blatt1.common.codec;
+
+import aqua.blatt1.common.FishModel;
+import aqua.blatt1.common.msgtypes.HandoffBatch;
+import aqua.blatt1.common.msgtypes.HandoffRequest;
+import aqua.blatt1.common.msgtypes.SnapshotResult;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/*
+ * Round trips every message type through the WireCodec and fails if a message does not decode to what was encoded.
+ * Usage: WireCodecCheck
+ */
+
+public class WireCodecCheck {
+
+    public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
+        final List<Serializable> messages = MessageSamples.all();
+        for (Serializable message : messages)
+            verifyRoundTrip(message);
+        System.out.println("Round trip verified for " + messages.size() + " message types");
+    }
+
+    private static void verifyRoundTrip(Serializable message) throws IOException {
+        if (!WireCodec.hasSchema(message))
+            throw new AssertionError("No schema for " + message.getClass());
+
+        final byte[] encoded = WireCodec.encode(message);
+        final Serializable decoded = WireCodec.decode(encoded);
+        final boolean equal;
+        // fish compare by identity, so compare their fields instead
+        if (message instanceof HandoffRequest handoff)
+            equal = describe(handoff.fish()).equals(describe(((HandoffRequest) decoded).fish()));
+        else if (message instanceof SnapshotResult snapshot)
+            equal = describe(snapshot.snapshotResult()).equals(describe(((SnapshotResult) decoded).snapshotResult()));
+        else if (message instanceof HandoffBatch batch)
+            equal = describe(batch.fishies()).equals(describe(((HandoffBatch) decoded).fishies()))
+                    && batch.arrivalTime() == ((HandoffBatch) decoded).arrivalTime();
+        else
+            equal = decoded.getClass() == message.getClass() && Arrays.equals(encoded, WireCodec.encode(decoded));
+        if (!equal)
+            throw new AssertionError("Round trip failed for " + message);
+    }
+
+    private static String describe(FishModel fish) {
+        return fish.getId() + "/" + fish.getX() + "/" + fish.getY() + "/" + fish.getDirection() + "/" + fish.isToggled();
+    }
+
+    private static Set<String> describe(Set<FishModel> fishies) {
+        return fishies.stream().map(WireCodecCheck::describe).collect(Collectors.toSet());
+    }
+
+    private static List<String> describe(List<FishModel> fishies) {
+        return fishies.stream().map(WireCodecCheck::describe).toList();
+    }
+}
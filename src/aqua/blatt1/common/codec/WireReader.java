@@ -0,0 +1,138 @@
+package aqua.blatt1.common.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * Reads the wire format written by WireWriter from a byte array. Not thread-safe.
+ */
+
+public class WireReader {
+
+    private final byte[] data;
+    private final int limit;
+    private int position;
+
+    public WireReader(byte[] data, int offset, int length) {
+        this.data = data;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    public int remaining() {
+        return limit - position;
+    }
+
+    public int readByte() throws IOException {
+        if (position >= limit)
+            throw new EOFException();
+        return data[position++] & 0xFF;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+
+    public int readSignedVarInt() throws IOException {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /*
+     * Reads the element count of a collection. Every element takes at least one byte, so a count beyond the
+     * remaining bytes is corrupt as well, and is rejected before anything is allocated for it.
+     */
+    public int readCount() throws IOException {
+        final int count = readVarInt();
+        if (count < 0 || count > remaining())
+            throw new StreamCorruptedException("Invalid count " + count);
+        return count;
+    }
+
+    public byte[] readBytes() throws IOException {
+        int length = readLength();
+        if (length < 0)
+            return null;
+        return readRaw(length);
+    }
+
+    public String readString() throws IOException {
+        int length = readLength();
+        if (length < 0)
+            return null;
+        int start = position;
+        return new String(data, start, advance(length) - start, StandardCharsets.UTF_8);
+    }
+
+    public InetSocketAddress readAddress() throws IOException {
+        final int type = readByte();
+        return switch (type) {
+            case WireWriter.NULL_ADDRESS -> null;
+            case WireWriter.UNRESOLVED_ADDRESS -> InetSocketAddress.createUnresolved(readHost(), readPort());
+            case WireWriter.IPV4_ADDRESS -> new InetSocketAddress(InetAddress.getByAddress(readRaw(4)), readPort());
+            case WireWriter.IPV6_ADDRESS -> new InetSocketAddress(InetAddress.getByAddress(readRaw(16)), readPort());
+            default -> throw new StreamCorruptedException("Unknown address type " + type);
+        };
+    }
+
+    // the length of bytes or a string, -1 for null
+    private int readLength() throws IOException {
+        final int value = readVarInt();
+        if (value < 0)
+            throw new StreamCorruptedException("Negative length " + value);
+        return value - 1;
+    }
+
+    private String readHost() throws IOException {
+        final String host = readString();
+        if (host == null)
+            throw new StreamCorruptedException("Unresolved address without host");
+        return host;
+    }
+
+    private int readPort() throws IOException {
+        final int port = readVarInt();
+        if (port < 0 || port > 0xFFFF)
+            throw new StreamCorruptedException("Invalid port " + port);
+        return port;
+    }
+
+    private byte[] readRaw(int length) throws IOException {
+        int start = position;
+        return Arrays.copyOfRange(data, start, advance(length));
+    }
+
+    private int advance(int length) throws EOFException {
+        if (length > remaining())
+            throw new EOFException();
+        position += length;
+        return position;
+    }
+}
@@ -0,0 +1,91 @@
+package aqua.blatt1.common.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Growable output buffer for the wire format. Meant to be reset and reused, e.g. one instance per thread.
+ * Not thread-safe.
+ */
+
+public class WireWriter extends ByteArrayOutputStream {
+
+    static final int NULL_ADDRESS = 0;
+    static final int IPV4_ADDRESS = 4;
+    static final int IPV6_ADDRESS = 6;
+    static final int UNRESOLVED_ADDRESS = 1;
+
+    public WireWriter() {
+        this(256);
+    }
+
+    public WireWriter(int initialSize) {
+        super(initialSize);
+    }
+
+    /*
+     * The backing array, valid up to size().
+     */
+    public byte[] array() {
+        return buf;
+    }
+
+    public void writeByte(int value) {
+        write(value);
+    }
+
+    public void writeBoolean(boolean value) {
+        write(value ? 1 : 0);
+    }
+
+    public void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        write(value);
+    }
+
+    public void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        write((int) value);
+    }
+
+    public void writeSignedVarInt(int value) {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    public void writeBytes(byte[] value) {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+        writeVarInt(value.length + 1);
+        write(value, 0, value.length);
+    }
+
+    public void writeString(String value) {
+        writeBytes(value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    public void writeAddress(InetSocketAddress value) {
+        if (value == null) {
+            writeByte(NULL_ADDRESS);
+            return;
+        }
+        if (value.isUnresolved()) {
+            writeByte(UNRESOLVED_ADDRESS);
+            writeString(value.getHostString());
+        } else {
+            byte[] address = value.getAddress().getAddress();
+            writeByte(value.getAddress() instanceof Inet4Address ? IPV4_ADDRESS : IPV6_ADDRESS);
+            write(address, 0, address.length);
+        }
+        writeVarInt(value.getPort());
+    }
+}
@@ -0,0 +1,12 @@
+package aqua.blatt1.common.msgtypes;
+
+import aqua.blatt1.common.Direction;
+
+import java.io.Serializable;
+
+/*
+ * Permit to hand off fish across the edge between the sender and the receiver, direction is the way it travels.
+ */
+
+public record EdgePermit(Direction direction) implements Serializable {
+}
@@ -0,0 +1,13 @@
+package aqua.blatt1.common.msgtypes;
+
+import aqua.blatt1.common.FishModel;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/*
+ * arrivalTime is the wall clock time in milliseconds at which the fish cross the edge, 0 if they already did.
+ */
+
+public record HandoffBatch(ArrayList<FishModel> fishies, long arrivalTime) implements Serializable {
+}
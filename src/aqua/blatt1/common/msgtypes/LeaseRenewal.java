@@ -0,0 +1,6 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+
+public record LeaseRenewal(String id) implements Serializable {
+}
@@ -0,0 +1,7 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+import java.security.PublicKey;
+
+public record SessionKeyExchangeMessage(PublicKey publicKey, byte[] wrappedSessionKey) implements Serializable {
+}
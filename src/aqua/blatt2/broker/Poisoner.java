@@ -6,8 +6,10 @@ import messaging.Endpoint;
 
 import javax.swing.*;
 import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
 
 public class Poisoner {
+    private static final int KEY_EXCHANGE_TIMEOUT = 2000;
     private final Endpoint endpoint;
     private final InetSocketAddress broker;
 
@@ -23,5 +25,16 @@ public class Poisoner {
 
     public void sendPoison() {
         endpoint.send(broker, new PoisonPill());
+
+        // the secure endpoint only sends the pill once it has received the broker's key
+        final long deadline = System.currentTimeMillis() + KEY_EXCHANGE_TIMEOUT;
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                endpoint.nonBlockingReceive();
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+        } catch (InterruptedException consumed) {
+            // allow method to terminate
+        }
     }
 }
@@ -0,0 +1,55 @@
+package aqua.blatt7.endpoint;
+
+import messaging.Endpoint;
+
+import java.lang.reflect.Field;
+import java.net.DatagramSocket;
+
+/*
+ * messaging.Endpoint opens a DatagramSocket in every constructor, also for subclasses which never use it, and
+ * offers no way to close it. Such subclasses close it in their constructors, so an endpoint costs at most the socket
+ * or channel it actually uses.
+ */
+
+final class EndpointSockets {
+
+    private static final Field SOCKET;
+
+    static {
+        try {
+            SOCKET = Endpoint.class.getDeclaredField("socket");
+            SOCKET.setAccessible(true);
+        } catch (NoSuchFieldException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private EndpointSockets() {
+    }
+
+    /*
+     * Closes the socket opened by the constructor of messaging.Endpoint.
+     */
+    static void close(Endpoint endpoint) {
+        try {
+            ((DatagramSocket) SOCKET.get(endpoint)).close();
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * Closes an endpoint, which may be a plain messaging.Endpoint.
+     */
+    static void closeEndpoint(Endpoint endpoint) {
+        if (endpoint instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            close(endpoint);
+        }
+    }
+}
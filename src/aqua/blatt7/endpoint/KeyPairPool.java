@@ -0,0 +1,61 @@
+package aqua.blatt7.endpoint;
+
+import java.security.KeyPair;
+import java.util.concurrent.*;
+
+/*
+ * Generates key pairs in the background, so endpoints created in bulk do not each wait for a key generation.
+ */
+
+public class KeyPairPool implements AutoCloseable {
+
+    private final int keySize;
+    private final BlockingQueue<KeyPair> keyPairs;
+    private final ExecutorService generators;
+
+    public KeyPairPool(int keySize, int capacity, int threads) {
+        this.keySize = keySize;
+        this.keyPairs = new ArrayBlockingQueue<>(capacity);
+        this.generators = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "KeyPairPool-" + keySize);
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threads; i++)
+            generators.execute(this::fill);
+    }
+
+    public int getKeySize() {
+        return keySize;
+    }
+
+    public int available() {
+        return keyPairs.size();
+    }
+
+    /*
+     * Falls back to generating in the calling thread if the pool is drained.
+     */
+    public KeyPair take() {
+        final KeyPair keyPair = keyPairs.poll();
+        return keyPair != null ? keyPair : KeyPairs.generate(keySize);
+    }
+
+    public KeyPair awaitTake() throws InterruptedException {
+        return keyPairs.take();
+    }
+
+    private void fill() {
+        try {
+            while (!Thread.currentThread().isInterrupted())
+                keyPairs.put(KeyPairs.generate(keySize));
+        } catch (InterruptedException consumed) {
+            // allow generator to terminate
+        }
+    }
+
+    @Override
+    public void close() {
+        generators.shutdownNow();
+    }
+}
@@ -0,0 +1,111 @@
+package aqua.blatt7.endpoint;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.*;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+public final class KeyPairs {
+
+    public static final String ALGORITHM = "RSA";
+
+    // Directory of the optional key store, endpoints generate a fresh key pair on every start if it is not set
+    public static final String KEY_STORE_PROPERTY = "aqua.keystore";
+    // Name of the key pair of this process in the key store, e.g. tank1, defaults to the port of the endpoint
+    public static final String KEY_NAME_PROPERTY = "aqua.keystore.name";
+
+    private KeyPairs() {
+    }
+
+    public static KeyPair generate(int keySize) {
+        try {
+            var keyPairGenerator = KeyPairGenerator.getInstance(ALGORITHM);
+            keyPairGenerator.initialize(keySize);
+            return keyPairGenerator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * The name of the key pair of an endpoint in the key store: the configured name, or the port of an endpoint
+     * bound to a fixed port like the broker. Other endpoints have no identity and get no stored key pair, so two
+     * endpoints never share a private key.
+     */
+    public static String identity(Integer port) {
+        final String name = System.getProperty(KEY_NAME_PROPERTY);
+        if (name != null)
+            return name;
+        return port != null ? "port" + port : null;
+    }
+
+    /*
+     * Uses the key store configured by the system property if there is one and the endpoint has an identity.
+     */
+    public static KeyPair obtain(String identity, int keySize) {
+        final String keyStore = System.getProperty(KEY_STORE_PROPERTY);
+        return keyStore != null && identity != null
+                ? loadOrGenerate(Path.of(keyStore), identity, keySize)
+                : generate(keySize);
+    }
+
+    public static KeyPair loadOrGenerate(Path keyStore, String identity, int keySize) {
+        if (!identity.matches("[\\w.-]+"))
+            throw new IllegalArgumentException("Invalid key pair name: " + identity);
+        final Path file = keyStore.resolve(identity + "-" + ALGORITHM.toLowerCase() + "-" + keySize + ".key");
+        if (Files.isReadable(file)) {
+            try {
+                return load(file);
+            } catch (IOException | GeneralSecurityException e) {
+                System.err.println("Could not load key pair from " + file + ", generating a new one: " + e);
+            }
+        }
+
+        KeyPair keyPair = generate(keySize);
+        try {
+            store(keyPair, file);
+        } catch (IOException e) {
+            System.err.println("Could not store key pair in " + file + ": " + e);
+        }
+        return keyPair;
+    }
+
+    public static KeyPair load(Path file) throws IOException, GeneralSecurityException {
+        try (var is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            final KeyFactory keyFactory = KeyFactory.getInstance(ALGORITHM);
+            final PublicKey publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(readBlock(is)));
+            final PrivateKey privateKey = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(readBlock(is)));
+            return new KeyPair(publicKey, privateKey);
+        } catch (InvalidKeySpecException | EOFException e) {
+            throw new InvalidKeyException("Corrupt key store file " + file, e);
+        }
+    }
+
+    public static void store(KeyPair keyPair, Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        // several endpoints may start at the same time, so never expose a half written file
+        final Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (var os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                writeBlock(os, keyPair.getPublic().getEncoded());
+                writeBlock(os, keyPair.getPrivate().getEncoded());
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static byte[] readBlock(DataInputStream is) throws IOException {
+        byte[] block = new byte[is.readInt()];
+        is.readFully(block);
+        return block;
+    }
+
+    private static void writeBlock(DataOutputStream os, byte[] block) throws IOException {
+        os.writeInt(block.length);
+        os.write(block);
+    }
+}
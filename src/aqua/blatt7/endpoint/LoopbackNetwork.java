@@ -0,0 +1,264 @@
+package aqua.blatt7.endpoint;
+
+import aqua.blatt1.common.codec.WireCodec;
+import messaging.Endpoint;
+import messaging.Message;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * A network inside one process, e.g. for a broker and its tanks in a performance experiment which runs offline.
+ * Datagrams are encoded like on the wire and suffer the conditions of their link: latency, jitter, loss, reordering
+ * and a bandwidth limit. The fate of every datagram is drawn from a random generator per link, seeded from
+ * aqua.loopback.seed, so a run which sends the same datagrams over a link loses and delays the same ones.
+ *
+ * Only this fault pattern is reproducible, runs are not: datagrams are delivered on the wall clock and the tanks
+ * tick on it too, so the number and order of the datagrams sent over a link, and with them which of them meet which
+ * fate, vary with the scheduling of the threads. Compare runs by their statistics, not by single events.
+ *
+ * The default conditions are configured by the system properties aqua.loopback.latency and aqua.loopback.jitter in
+ * milliseconds, aqua.loopback.loss and aqua.loopback.reorder as probabilities and aqua.loopback.bandwidth in bytes
+ * per second, 0 is unlimited. Single links may get conditions of their own.
+ */
+
+public class LoopbackNetwork {
+
+    private static final int FIRST_EPHEMERAL_PORT = 49152;
+    private static final LoopbackNetwork SHARED =
+            new LoopbackNetwork(Conditions.configured(), Long.getLong("aqua.loopback.seed", 42));
+
+    private final long seed;
+    private final Map<Integer, LoopbackEndpoint> endpoints = new ConcurrentHashMap<>();
+    private final Map<LinkKey, Link> links = new ConcurrentHashMap<>();
+    private final Map<LinkKey, Conditions> linkConditions = new ConcurrentHashMap<>();
+    private final DelayQueue<Datagram> inFlight = new DelayQueue<>();
+    private final AtomicInteger nextPort = new AtomicInteger(FIRST_EPHEMERAL_PORT);
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong reordered = new AtomicLong();
+    private volatile Conditions defaultConditions;
+
+    public LoopbackNetwork(Conditions defaultConditions, long seed) {
+        this.defaultConditions = defaultConditions;
+        this.seed = seed;
+
+        final Thread deliverer = new Thread(this::deliver, "LoopbackNetwork");
+        deliverer.setDaemon(true);
+        deliverer.start();
+    }
+
+    /*
+     * The network of Transport.LOOPBACK.
+     */
+    public static LoopbackNetwork shared() {
+        return SHARED;
+    }
+
+    /*
+     * Binds the port, or a free port if it is null.
+     */
+    public LoopbackEndpoint open(Integer port) {
+        while (true) {
+            final int bound = port != null ? port : nextPort.getAndIncrement();
+            final LoopbackEndpoint endpoint = new LoopbackEndpoint(bound);
+            if (endpoints.putIfAbsent(bound, endpoint) == null)
+                return endpoint;
+            if (port != null)
+                throw new RuntimeException(new IOException("Address already in use: " + port));
+        }
+    }
+
+    public void setDefaultConditions(Conditions conditions) {
+        defaultConditions = conditions;
+    }
+
+    /*
+     * Sets the conditions of datagrams from one address to another, the other direction is not affected.
+     */
+    public void setConditions(InetSocketAddress from, InetSocketAddress to, Conditions conditions) {
+        linkConditions.put(new LinkKey(from.getPort(), to.getPort()), conditions);
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getLost() {
+        return lost.get();
+    }
+
+    public long getReordered() {
+        return reordered.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LoopbackNetwork[%s, sent=%d, lost=%d, reordered=%d]", defaultConditions, sent.get(),
+                lost.get(), reordered.get());
+    }
+
+    private void send(int from, InetSocketAddress receiver, byte[] datagram) {
+        if (datagram.length > NioEndpoint.MAX_DATAGRAM_SIZE)
+            throw new RuntimeException(new IOException("Message too long: " + datagram.length + " bytes"));
+        sent.incrementAndGet();
+
+        final LinkKey key = new LinkKey(from, receiver.getPort());
+        final Conditions conditions = linkConditions.getOrDefault(key, defaultConditions);
+        final Link link = links.computeIfAbsent(key, k -> new Link(new Random(seed ^ k.hashCode())));
+        final long deliverAt;
+        synchronized (link) {
+            if (link.random.nextDouble() < conditions.loss()) {
+                lost.incrementAndGet();
+                return;
+            }
+
+            long departure = System.nanoTime();
+            if (conditions.bandwidth() > 0) {
+                departure = Math.max(departure, link.busyUntil)
+                        + TimeUnit.SECONDS.toNanos(datagram.length) / conditions.bandwidth();
+                link.busyUntil = departure;
+            }
+
+            long delay = TimeUnit.MILLISECONDS.toNanos(conditions.latencyMillis());
+            if (conditions.jitterMillis() > 0)
+                delay += (long) (link.random.nextDouble() * TimeUnit.MILLISECONDS.toNanos(conditions.jitterMillis()));
+            // like netem, a reordered datagram skips the delay and overtakes the ones in flight
+            if (conditions.reorder() > 0 && link.random.nextDouble() < conditions.reorder()) {
+                reordered.incrementAndGet();
+                delay = 0;
+            }
+            deliverAt = departure + delay;
+        }
+        inFlight.add(new Datagram(deliverAt, sequence.getAndIncrement(), from, receiver.getPort(), datagram));
+    }
+
+    private void deliver() {
+        try {
+            while (true) {
+                final Datagram datagram = inFlight.take();
+                // like UDP, datagrams to unbound ports are dropped
+                final LoopbackEndpoint receiver = endpoints.get(datagram.to());
+                if (receiver != null)
+                    receiver.inbox.add(datagram);
+            }
+        } catch (InterruptedException consumed) {
+            // allow deliverer to terminate
+        }
+    }
+
+    /*
+     * The conditions of a link. Latency and jitter in milliseconds, every datagram is delayed by the latency plus a
+     * uniformly distributed part of the jitter. Loss and reorder are probabilities, bandwidth is in bytes per
+     * second, 0 is unlimited.
+     */
+    public record Conditions(long latencyMillis, long jitterMillis, double loss, double reorder, long bandwidth) {
+
+        public static final Conditions PERFECT = new Conditions(0, 0, 0, 0, 0);
+
+        public static Conditions configured() {
+            return new Conditions(
+                    Long.getLong("aqua.loopback.latency", 0),
+                    Long.getLong("aqua.loopback.jitter", 0),
+                    Double.parseDouble(System.getProperty("aqua.loopback.loss", "0")),
+                    Double.parseDouble(System.getProperty("aqua.loopback.reorder", "0")),
+                    Long.getLong("aqua.loopback.bandwidth", 0));
+        }
+    }
+
+    /*
+     * An endpoint on the loopback network. Thread-safe.
+     */
+    public class LoopbackEndpoint extends Endpoint implements AutoCloseable {
+        private final InetSocketAddress address;
+        private final BlockingQueue<Datagram> inbox = new LinkedBlockingQueue<>();
+
+        private LoopbackEndpoint(int port) {
+            // messaging.Endpoint opened a socket which this endpoint never uses
+            EndpointSockets.close(this);
+            this.address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        }
+
+        public InetSocketAddress getLocalAddress() {
+            return address;
+        }
+
+        @Override
+        public void send(InetSocketAddress receiver, Serializable payload) {
+            try {
+                LoopbackNetwork.this.send(address.getPort(), receiver, WireCodec.encode(payload));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Message blockingReceive() {
+            try {
+                return decode(inbox.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Message nonBlockingReceive() {
+            final Datagram datagram = inbox.poll();
+            return datagram != null ? decode(datagram) : null;
+        }
+
+        @Override
+        public void close() {
+            endpoints.remove(address.getPort(), this);
+        }
+
+        private Message decode(Datagram datagram) {
+            try {
+                return new Message(WireCodec.decode(datagram.data()),
+                        new InetSocketAddress(InetAddress.getLoopbackAddress(), datagram.from()));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private record LinkKey(int from, int to) {
+    }
+
+    /*
+     * The random generator and the time the link is busy until, guarded by the link.
+     */
+    private static class Link {
+        private final Random random;
+        private long busyUntil;
+
+        Link(Random random) {
+            this.random = random;
+        }
+    }
+
+    private record Datagram(long deliverAt, long sequence, int from, int to, byte[] data) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deliverAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            final Datagram datagram = (Datagram) other;
+            // datagrams due at the same time keep the order they were sent in
+            final int byTime = Long.compare(deliverAt, datagram.deliverAt);
+            return byTime != 0 ? byTime : Long.compare(sequence, datagram.sequence);
+        }
+    }
+}
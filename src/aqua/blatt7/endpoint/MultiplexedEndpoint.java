@@ -0,0 +1,212 @@
+package aqua.blatt7.endpoint;
+
+import aqua.blatt1.common.codec.WireCodec;
+import aqua.blatt1.common.codec.WireWriter;
+import messaging.Endpoint;
+import messaging.Message;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/*
+ * Many endpoints in one process, e.g. one per tank of a host, which are received by a single thread. Every link
+ * keeps its own non-blocking DatagramChannel, as peers tell endpoints apart by address, but all channels share one
+ * selector and one receive buffer, and the links pass their messages to a consumer instead of being polled.
+ * Payloads are sent in the format of the configured Transport, so the links talk to peers on either transport:
+ * Java serialization like messaging.Endpoint or the WireCodec format like NioEndpoint. Both formats are received.
+ */
+
+public class MultiplexedEndpoint implements AutoCloseable {
+
+    public static final int DEFAULT_SOCKET_BUFFER_SIZE = 64 * 1024;
+    // messages read from one link before the others get their turn
+    private static final int MAX_MESSAGES_PER_SELECT = 64;
+    private static final ThreadLocal<WireWriter> encodeBuffer = ThreadLocal.withInitial(WireWriter::new);
+    private static final ThreadLocal<ByteBuffer> sendBuffer =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(NioEndpoint.MAX_DATAGRAM_SIZE));
+
+    private final boolean javaSerialization = Transport.configured().javaSerialization();
+    private final int socketBufferSize;
+    private final Selector selector;
+    private final Queue<Link> registrations = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(NioEndpoint.MAX_DATAGRAM_SIZE);
+    private final byte[] receiveArray = new byte[NioEndpoint.MAX_DATAGRAM_SIZE];
+
+    public MultiplexedEndpoint() {
+        this(DEFAULT_SOCKET_BUFFER_SIZE);
+    }
+
+    public MultiplexedEndpoint(int socketBufferSize) {
+        this.socketBufferSize = socketBufferSize;
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        final Thread receiver = new Thread(this::receive, "MultiplexedEndpoint");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /*
+     * Opens a link on a free port. The consumer is called by the receiving thread and must not block.
+     */
+    public Link open(Consumer<Message> consumer) {
+        try {
+            final DatagramChannel channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, socketBufferSize);
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, socketBufferSize);
+            channel.bind(new InetSocketAddress(0));
+            channel.configureBlocking(false);
+
+            final Link link = new Link(channel, consumer);
+            // channels can only be registered while the selector is not selecting
+            registrations.add(link);
+            selector.wakeup();
+            return link;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            selector.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void receive() {
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                for (Link link; (link = registrations.poll()) != null; ) {
+                    try {
+                        link.channel.register(selector, SelectionKey.OP_READ, link);
+                    } catch (ClosedChannelException consumed) {
+                        // the link was closed before it was registered
+                    }
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (key.isValid())
+                        ((Link) key.attachment()).drain();
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (ClosedSelectorException consumed) {
+            // allow receiver to terminate
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        System.out.println("MultiplexedEndpoint stopped.");
+    }
+
+    /*
+     * One endpoint of the multiplexer. Sending is thread-safe. Links are push-only: the messages are passed to the
+     * consumer, so nonBlockingReceive never has one and blockingReceive, which would wait forever, is not supported.
+     */
+    public class Link extends Endpoint implements AutoCloseable {
+        private final DatagramChannel channel;
+        private final Consumer<Message> consumer;
+
+        private Link(DatagramChannel channel, Consumer<Message> consumer) {
+            // messaging.Endpoint opened a socket which this endpoint never uses
+            EndpointSockets.close(this);
+            this.channel = channel;
+            this.consumer = consumer;
+        }
+
+        public InetSocketAddress getLocalAddress() {
+            try {
+                return (InetSocketAddress) channel.getLocalAddress();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void send(InetSocketAddress receiver, Serializable payload) {
+            try {
+                WireWriter encoded = encodeBuffer.get();
+                encoded.reset();
+                if (javaSerialization) {
+                    ObjectOutputStream os = new ObjectOutputStream(encoded);
+                    os.writeObject(payload);
+                    os.close();
+                } else {
+                    WireCodec.encode(payload, encoded);
+                }
+
+                ByteBuffer buffer = sendBuffer.get();
+                buffer.clear();
+                buffer.put(encoded.array(), 0, encoded.size());
+                buffer.flip();
+                // a full socket buffer drains within microseconds, which is not worth a selector per link
+                while (channel.send(buffer, receiver) == 0)
+                    Thread.yield();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Message blockingReceive() {
+            throw new UnsupportedOperationException("Messages are passed to the consumer of the link");
+        }
+
+        @Override
+        public Message nonBlockingReceive() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void drain() {
+            for (int i = 0; i < MAX_MESSAGES_PER_SELECT; i++) {
+                final SocketAddress sender;
+                try {
+                    receiveBuffer.clear();
+                    sender = channel.receive(receiveBuffer);
+                } catch (IOException e) {
+                    // e.g. the link was closed meanwhile, its key is cancelled with the channel
+                    return;
+                }
+                if (sender == null)
+                    return;
+                receiveBuffer.flip();
+                final int length = receiveBuffer.remaining();
+                receiveBuffer.get(receiveArray, 0, length);
+
+                // neither a broken datagram nor a failing consumer may stop the receiver of all the other links
+                try {
+                    consumer.accept(new Message(WireCodec.decode(receiveArray, 0, length), (InetSocketAddress) sender));
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Dropped message: " + e);
+                }
+            }
+        }
+    }
+}
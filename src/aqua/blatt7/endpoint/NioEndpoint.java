@@ -0,0 +1,209 @@
+package aqua.blatt7.endpoint;
+
+import aqua.blatt1.common.codec.WireCodec;
+import aqua.blatt1.common.codec.WireWriter;
+import messaging.Endpoint;
+import messaging.Message;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/*
+ * Drop-in replacement for messaging.Endpoint built on a non-blocking DatagramChannel. Payloads are sent in Java
+ * serialization like messaging.Endpoint does, or in the more compact WireCodec format if all peers read it. Both
+ * formats are received. Datagrams may be as large as UDP allows instead of 1024 bytes.
+ *
+ * Sending is thread-safe, every sending thread reuses its own direct buffer. Datagrams are read one at a time into
+ * one direct buffer, but no lock is held while waiting for them, so nonBlockingReceive never waits for a blocked
+ * receiver.
+ */
+
+public class NioEndpoint extends Endpoint implements AutoCloseable {
+
+    public static final int MAX_DATAGRAM_SIZE = 65507;
+    public static final int DEFAULT_SOCKET_BUFFER_SIZE = 1024 * 1024;
+
+    private final boolean javaSerialization;
+    private final DatagramChannel channel;
+    private final Selector readSelector;
+    private final Selector writeSelector;
+    private final Object receiveLock = new Object();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    private final byte[] receiveArray = new byte[MAX_DATAGRAM_SIZE];
+    private final ThreadLocal<WireWriter> encodeBuffer = ThreadLocal.withInitial(WireWriter::new);
+    private final ThreadLocal<ByteBuffer> sendBuffer =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE));
+
+    public NioEndpoint() {
+        this(null);
+    }
+
+    public NioEndpoint(Integer port) {
+        this(port, DEFAULT_SOCKET_BUFFER_SIZE, DEFAULT_SOCKET_BUFFER_SIZE, true);
+    }
+
+    public NioEndpoint(Integer port, int receiveBufferSize, int sendBufferSize, boolean javaSerialization) {
+        // messaging.Endpoint opened a socket which this endpoint never uses
+        EndpointSockets.close(this);
+        this.javaSerialization = javaSerialization;
+        try {
+            channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+            channel.bind(new InetSocketAddress(port != null ? port : 0));
+            channel.configureBlocking(false);
+
+            readSelector = Selector.open();
+            writeSelector = Selector.open();
+            channel.register(readSelector, SelectionKey.OP_READ);
+            channel.register(writeSelector, SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public InetSocketAddress getLocalAddress() {
+        try {
+            return (InetSocketAddress) channel.getLocalAddress();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public int getReceiveBufferSize() {
+        try {
+            return channel.getOption(StandardSocketOptions.SO_RCVBUF);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void send(InetSocketAddress receiver, Serializable payload) {
+        try {
+            WireWriter encoded = encodeBuffer.get();
+            encoded.reset();
+            if (javaSerialization) {
+                ObjectOutputStream os = new ObjectOutputStream(encoded);
+                os.writeObject(payload);
+                os.close();
+            } else {
+                WireCodec.encode(payload, encoded);
+            }
+
+            ByteBuffer buffer = sendBuffer.get();
+            buffer.clear();
+            buffer.put(encoded.array(), 0, encoded.size());
+            buffer.flip();
+            while (channel.send(buffer, receiver) == 0)
+                awaitWritable();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Message blockingReceive() {
+        return receive(0);
+    }
+
+    @Override
+    public Message nonBlockingReceive() {
+        synchronized (receiveLock) {
+            return receiveNow();
+        }
+    }
+
+    /*
+     * Waits at most timeoutMillis for a message, 0 waits forever. Returns null on timeout.
+     */
+    public Message receive(long timeoutMillis) {
+        try {
+            final long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (true) {
+                Message message = nonBlockingReceive();
+                if (message != null)
+                    return message;
+
+                long remaining = timeoutMillis == 0 ? 0 : deadline - System.currentTimeMillis();
+                if (timeoutMillis != 0 && remaining <= 0)
+                    return null;
+                // the selected keys are not thread-safe, concurrent receivers wait here instead
+                synchronized (readSelector) {
+                    readSelector.select(remaining);
+                    readSelector.selectedKeys().clear();
+                }
+                if (!channel.isOpen())
+                    throw new IllegalStateException("Endpoint closed");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * Waits at most timeoutMillis for the first message, 0 waits forever, then adds every message which is
+     * already queued in the socket, up to max messages. Returns the number of messages added.
+     */
+    public int receiveBatch(Collection<? super Message> sink, int max, long timeoutMillis) {
+        Message message = receive(timeoutMillis);
+        int received = 0;
+        while (message != null) {
+            sink.add(message);
+            if (++received == max)
+                break;
+            message = nonBlockingReceive();
+        }
+        return received;
+    }
+
+    public List<Message> receiveBatch(int max, long timeoutMillis) {
+        List<Message> messages = new ArrayList<>();
+        receiveBatch(messages, max, timeoutMillis);
+        return messages;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            readSelector.close();
+            writeSelector.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Message receiveNow() {
+        try {
+            receiveBuffer.clear();
+            SocketAddress sender = channel.receive(receiveBuffer);
+            if (sender == null)
+                return null;
+            receiveBuffer.flip();
+            final int length = receiveBuffer.remaining();
+            receiveBuffer.get(receiveArray, 0, length);
+            return new Message(WireCodec.decode(receiveArray, 0, length), (InetSocketAddress) sender);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void awaitWritable() throws IOException {
+        synchronized (writeSelector) {
+            writeSelector.select(1);
+            writeSelector.selectedKeys().clear();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package aqua.blatt7.endpoint;
+
+/*
+ * A byte array which is kept per thread instead of being allocated for every message. Not thread-safe, use one
+ * instance per thread.
+ */
+
+final class ReusableBuffer {
+
+    private byte[] buf;
+
+    ReusableBuffer(int initialSize) {
+        buf = new byte[initialSize];
+    }
+
+    static ThreadLocal<ReusableBuffer> perThread(int initialSize) {
+        return ThreadLocal.withInitial(() -> new ReusableBuffer(initialSize));
+    }
+
+    /*
+     * Returns the backing array, grown to at least the given capacity. Its content is undefined.
+     */
+    byte[] array(int minCapacity) {
+        if (buf.length < minCapacity)
+            buf = new byte[Math.max(minCapacity, buf.length * 2)];
+        return buf;
+    }
+}
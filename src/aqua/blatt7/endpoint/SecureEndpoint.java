@@ -1,125 +1,468 @@
 package aqua.blatt7.endpoint;
 
+import aqua.blatt1.common.codec.WireCodec;
+import aqua.blatt1.common.codec.WireWriter;
 import aqua.blatt1.common.msgtypes.KeyExchangeMessage;
+import aqua.blatt1.common.msgtypes.SessionKeyExchangeMessage;
 import messaging.Endpoint;
 import messaging.Message;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
+import javax.crypto.*;
+import javax.crypto.spec.GCMParameterSpec;
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.security.*;
-import java.util.Base64;
-import java.util.HashMap;
-import java.util.Map;
+import java.security.interfaces.RSAKey;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class SecureEndpoint extends Endpoint {
+/*
+ * This class is thread-safe. Every thread gets its own cipher instances, asymmetric encryption ciphers are kept
+ * initialized per receiver, so concurrent senders neither share cipher state nor re-initialize it for every message.
+ * Scratch buffers and the session cipher are shared by all endpoints on a thread, so many endpoints in one process
+ * stay small.
+ */
+
+public class SecureEndpoint extends Endpoint implements AutoCloseable {
+
+    /*
+     * RSA encrypts every payload with the peers public key.
+     * SESSION only uses RSA to wrap one AES key per peer and direction during the key exchange, all payloads are
+     * encrypted with AES-GCM afterwards. Both sides of a connection must use the same mode.
+     */
+    public enum Mode {
+        RSA,
+        SESSION
+    }
+
+    private static final String ASYMMETRIC_ALGORITHM = KeyPairs.ALGORITHM;
+    private static final String SYMMETRIC_ALGORITHM = "AES";
+    private static final String SESSION_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int SESSION_KEY_SIZE = 128;
+    private static final int WRAP_KEY_SIZE = 2048;
+    private static final int GCM_IV_LENGTH = 12;
+    private static final int GCM_TAG_LENGTH = 128;
+    private static final int PKCS1_PADDING_LENGTH = 11;
+    // Java serialization of a byte array, and the WireCodec tag and longest length prefix of one
+    private static final int JAVA_BYTE_ARRAY_OVERHEAD = 27;
+    private static final int WIRE_BYTE_ARRAY_OVERHEAD = 4;
+    private static final long KEY_EXCHANGE_RETRY_MILLIS = 1000;
+    // peers which never answer must not keep payloads, exchanges or ciphers forever
+    private static final long KEY_EXCHANGE_TIMEOUT_MILLIS = 30_000;
+    private static final int MAX_CACHED_PAYLOADS = 64;
+    private static final int MAX_RECEIVER_CIPHERS = 1024;
+    // the keys of peers which sent nothing for this long are forgotten, e.g. of tanks which left the broker
+    private static final long PEER_IDLE_MILLIS = 5 * 60_000;
+    private static final int MAX_PEERS = 65536;
 
     private final Endpoint endpoint;
+    private final Mode mode;
 
     // Keysize must be big enough for message but small enough for performance/socket buffer - breaks after 7 fish...
-    private final int MAX_MESSAGE_SIZE = (int) (1024 * 4.75);
-    private final Cipher encryptCipher;
-    private final Cipher decryptCipher;
-    private final Map<InetSocketAddress, PublicKey> knownPublicKeys = new HashMap<>();
-    private final Map<InetSocketAddress, Serializable> cachedPayloads = new HashMap<>();
+    private static final int MAX_MESSAGE_SIZE = (int) (1024 * 4.75);
+    private final ThreadLocal<Map<InetSocketAddress, ReceiverCipher>> encryptCiphers =
+            ThreadLocal.withInitial(HashMap::new);
+    private final ThreadLocal<Cipher> decryptCipher;
+    private final ThreadLocal<Cipher> unwrapCipher;
+    private static final ThreadLocal<Cipher> sessionCipher =
+            ThreadLocal.withInitial(() -> newCipher(SESSION_TRANSFORMATION));
+    private static final ThreadLocal<WireWriter> encodeBuffer =
+            ThreadLocal.withInitial(() -> new WireWriter(MAX_MESSAGE_SIZE));
+    private static final ThreadLocal<ReusableBuffer> decodeBuffer = ReusableBuffer.perThread(MAX_MESSAGE_SIZE);
+    private final KeyGenerator sessionKeyGenerator;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<InetSocketAddress, PublicKey> knownPublicKeys = new ConcurrentHashMap<>();
+    private final Map<InetSocketAddress, SecretKey> outboundSessionKeys = new ConcurrentHashMap<>();
+    private final Map<InetSocketAddress, SecretKey> inboundSessionKeys = new ConcurrentHashMap<>();
+    private final Map<InetSocketAddress, Long> lastReceivedAt = new ConcurrentHashMap<>();
+    private final AtomicLong idlePeersExpiredAt = new AtomicLong(System.currentTimeMillis());
+    private final Map<InetSocketAddress, List<Serializable>> cachedPayloads = new HashMap<>();
+    // guarded by cachedPayloads
+    private final Map<InetSocketAddress, Long> keyExchangeSentAt = new HashMap<>();
+    private final Map<InetSocketAddress, Long> keyExchangeStartedAt = new HashMap<>();
+    private long expiredAt;
     private final PublicKey publicKey;
+    private final int maxPayloadSize;
 
     public SecureEndpoint() {
         this(null);
     }
 
     public SecureEndpoint(Integer port) {
+        this(port, Mode.SESSION);
+    }
+
+    public SecureEndpoint(Integer port, Mode mode) {
+        this(port, mode, KeyPairs.obtain(KeyPairs.identity(port), keySize(mode)));
+    }
+
+    public SecureEndpoint(Integer port, Mode mode, KeyPair keyPair) {
+        this(Transport.configured().open(port), mode, keyPair);
+    }
+
+    public SecureEndpoint(Endpoint endpoint, Mode mode, KeyPair keyPair) {
+        // messaging.Endpoint opened a socket which the wrapped endpoint replaces
+        EndpointSockets.close(this);
         try {
-            endpoint = port != null ? new Endpoint(port) : new Endpoint();
+            this.endpoint = endpoint;
+            this.mode = mode;
 
-            final String algorithm = "RSA";
-            var keyPairGenerator = KeyPairGenerator.getInstance(algorithm);
-            keyPairGenerator.initialize(MAX_MESSAGE_SIZE);
-            var keyPair = keyPairGenerator.generateKeyPair();
             publicKey = keyPair.getPublic();
             final PrivateKey privateKey = keyPair.getPrivate();
 
-            encryptCipher = Cipher.getInstance(algorithm);
-            decryptCipher = Cipher.getInstance(algorithm);
-            decryptCipher.init(Cipher.DECRYPT_MODE, privateKey);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException e) {
+            decryptCipher = ThreadLocal.withInitial(() -> newCipher(ASYMMETRIC_ALGORITHM, Cipher.DECRYPT_MODE, privateKey));
+            unwrapCipher = ThreadLocal.withInitial(() -> newCipher(ASYMMETRIC_ALGORITHM, Cipher.UNWRAP_MODE, privateKey));
+
+            sessionKeyGenerator = KeyGenerator.getInstance(SYMMETRIC_ALGORITHM);
+            sessionKeyGenerator.init(SESSION_KEY_SIZE, random);
+
+            final Transport transport = Transport.configured();
+            final int datagram = transport.maxDatagramSize()
+                    - (transport.javaSerialization() ? JAVA_BYTE_ARRAY_OVERHEAD : WIRE_BYTE_ARRAY_OVERHEAD);
+            maxPayloadSize = switch (mode) {
+                case RSA -> Math.min(((RSAKey) publicKey).getModulus().bitLength() / 8 - PKCS1_PADDING_LENGTH,
+                        datagram);
+                case SESSION -> datagram - GCM_IV_LENGTH - GCM_TAG_LENGTH / 8;
+            };
+        } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
     }
 
+    public static int keySize(Mode mode) {
+        return mode == Mode.RSA ? MAX_MESSAGE_SIZE : WRAP_KEY_SIZE;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /*
+     * The longest payload in the WireCodec format which can be encrypted and still reaches a peer on the configured
+     * transport in one datagram.
+     */
+    public int getMaxPayloadSize() {
+        return maxPayloadSize;
+    }
+
     @Override
     public void send(InetSocketAddress receiver, Serializable payload) {
         try {
-            if (!knownPublicKeys.containsKey(receiver)) {
-                cachedPayloads.put(receiver, payload);
-                endpoint.send(receiver, new KeyExchangeMessage(publicKey));
+            if (!isKnown(receiver) && cacheUntilKeyExchanged(receiver, payload))
                 return;
-            }
-            PublicKey recieverPublicKey = knownPublicKeys.get(receiver);
-            encryptCipher.init(Cipher.ENCRYPT_MODE, recieverPublicKey);
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream(MAX_MESSAGE_SIZE);
-            ObjectOutputStream os = new ObjectOutputStream(baos);
-            os.writeObject(payload);
-            os.close();
-            byte[] encryptedBytes = encryptCipher.doFinal(baos.toByteArray());
-            endpoint.send(receiver, Base64.getEncoder().encodeToString(encryptedBytes));
-        } catch (IllegalBlockSizeException | BadPaddingException | IOException | InvalidKeyException e) {
+
+            final WireWriter plain = serialize(payload);
+            // the endpoint serializes the array before send returns, so the pooled buffers can be reused right away
+            endpoint.send(receiver, switch (mode) {
+                case RSA -> encryptAsymmetric(receiver, plain);
+                case SESSION -> encryptSession(receiver, plain);
+            });
+        } catch (GeneralSecurityException | IOException e) {
             throw new RuntimeException(e);
         }
     }
 
     @Override
     public Message blockingReceive() {
-        Message message = endpoint.blockingReceive();
-        if (handleIfKeyExchangeMessage(message))
-            return blockingReceive();
-        return decrypt(message);
+        // key exchanges and messages which can not be decrypted are not returned
+        while (true) {
+            final Message decrypted = accept(endpoint.blockingReceive());
+            if (decrypted != null)
+                return decrypted;
+        }
     }
 
     @Override
     public Message nonBlockingReceive() {
         Message message = endpoint.nonBlockingReceive();
-        if (message == null)
-            return null;
-        else if (handleIfKeyExchangeMessage(message))
+        return message != null ? accept(message) : null;
+    }
+
+    /*
+     * Handles a message which the underlying endpoint received, for endpoints which pass their messages on instead
+     * of being polled. Returns the decrypted message, or null for key exchanges and messages which can not be
+     * decrypted.
+     */
+    public Message accept(Message message) {
+        final long now = System.currentTimeMillis();
+        lastReceivedAt.put(message.getSender(), now);
+        expireIdlePeers(now);
+        if (handleIfKeyExchangeMessage(message))
             return null;
         return decrypt(message);
     }
 
+    /*
+     * Closes the underlying endpoint.
+     */
+    @Override
+    public void close() {
+        EndpointSockets.closeEndpoint(endpoint);
+    }
+
+    /*
+     * Forgets the keys of peers which sent nothing for a while, at most every tenth of that time. A peer which
+     * comes back from the same address exchanges keys again.
+     */
+    private void expireIdlePeers(long now) {
+        final long expiredAt = idlePeersExpiredAt.get();
+        if (now - expiredAt < PEER_IDLE_MILLIS / 10 || !idlePeersExpiredAt.compareAndSet(expiredAt, now))
+            return;
+        for (var it = lastReceivedAt.entrySet().iterator(); it.hasNext(); ) {
+            final var received = it.next();
+            if (now - received.getValue() < PEER_IDLE_MILLIS)
+                continue;
+            it.remove();
+            knownPublicKeys.remove(received.getKey());
+            outboundSessionKeys.remove(received.getKey());
+            inboundSessionKeys.remove(received.getKey());
+        }
+    }
+
+    /*
+     * Makes room for the keys of a new peer, in case more peers than this are active within the idle time. Like the
+     * receiver ciphers, the keys are dropped all at once, the peers still present exchange them again.
+     */
+    private void admit(InetSocketAddress peer) {
+        if (knownPublicKeys.size() < MAX_PEERS || knownPublicKeys.containsKey(peer))
+            return;
+        System.err.println("Keys of " + knownPublicKeys.size() + " peers dropped");
+        knownPublicKeys.clear();
+        outboundSessionKeys.clear();
+        inboundSessionKeys.clear();
+        lastReceivedAt.clear();
+    }
+
+    private boolean isKnown(InetSocketAddress receiver) {
+        return switch (mode) {
+            case RSA -> knownPublicKeys.containsKey(receiver);
+            case SESSION -> outboundSessionKeys.containsKey(receiver);
+        };
+    }
+
+    private boolean cacheUntilKeyExchanged(InetSocketAddress receiver, Serializable payload) {
+        synchronized (cachedPayloads) {
+            // the key exchange may have completed since the caller checked
+            if (isKnown(receiver))
+                return false;
+            final long now = System.currentTimeMillis();
+            expireKeyExchanges(now);
+            keyExchangeStartedAt.putIfAbsent(receiver, now);
+            List<Serializable> cached = cachedPayloads.computeIfAbsent(receiver, r -> new ArrayList<>());
+            // like a full socket buffer, a peer which does not answer loses the oldest payloads
+            if (cached.size() == MAX_CACHED_PAYLOADS)
+                cached.remove(0);
+            cached.add(payload);
+            // every key exchange is answered, so it is only repeated once a second, in case it or its answer got lost
+            final Long sentAt = keyExchangeSentAt.get(receiver);
+            if (sentAt != null && now - sentAt < KEY_EXCHANGE_RETRY_MILLIS)
+                return true;
+            keyExchangeSentAt.put(receiver, now);
+        }
+        endpoint.send(receiver, switch (mode) {
+            case RSA -> new KeyExchangeMessage(publicKey);
+            case SESSION -> new SessionKeyExchangeMessage(publicKey, null);
+        });
+        return true;
+    }
+
+    // guarded by cachedPayloads
+    private void expireKeyExchanges(long now) {
+        if (now - expiredAt < KEY_EXCHANGE_RETRY_MILLIS)
+            return;
+        expiredAt = now;
+        for (var it = keyExchangeStartedAt.entrySet().iterator(); it.hasNext(); ) {
+            final var started = it.next();
+            if (now - started.getValue() < KEY_EXCHANGE_TIMEOUT_MILLIS)
+                continue;
+            it.remove();
+            keyExchangeSentAt.remove(started.getKey());
+            final List<Serializable> dropped = cachedPayloads.remove(started.getKey());
+            System.err.println("Key exchange with " + started.getKey() + " timed out, dropped "
+                    + (dropped != null ? dropped.size() : 0) + " messages");
+        }
+    }
+
+    private List<Serializable> removeCachedPayloads(InetSocketAddress receiver) {
+        synchronized (cachedPayloads) {
+            keyExchangeSentAt.remove(receiver);
+            keyExchangeStartedAt.remove(receiver);
+            List<Serializable> cached = cachedPayloads.remove(receiver);
+            return cached != null ? cached : List.of();
+        }
+    }
+
     private boolean handleIfKeyExchangeMessage(Message message) {
         if (message.getPayload() instanceof KeyExchangeMessage keyExchangeMessage) {
+            admit(message.getSender());
             knownPublicKeys.put(message.getSender(), keyExchangeMessage.publicKey());
-            Serializable cachedMessage = cachedPayloads.remove(message.getSender());
+            List<Serializable> cachedMessages = removeCachedPayloads(message.getSender());
             InetSocketAddress sender = message.getSender();
 
-            if (cachedMessage == null)
+            if (cachedMessages.isEmpty())
                 endpoint.send(sender, new KeyExchangeMessage(publicKey));
             else
-                send(sender, cachedMessage);
+                cachedMessages.forEach(cachedMessage -> send(sender, cachedMessage));
+            return true;
+        }
+        if (message.getPayload() instanceof SessionKeyExchangeMessage keyExchangeMessage) {
+            InetSocketAddress sender = message.getSender();
+            admit(sender);
+            knownPublicKeys.put(sender, keyExchangeMessage.publicKey());
+            if (keyExchangeMessage.wrappedSessionKey() != null)
+                inboundSessionKeys.put(sender, unwrapSessionKey(keyExchangeMessage.wrappedSessionKey()));
+
+            // answer until the peer knows our session key, but not forever
+            SecretKey sessionKey = outboundSessionKeys.get(sender);
+            boolean newSession = sessionKey == null;
+            if (newSession)
+                sessionKey = generateSessionKey();
+            if (newSession || keyExchangeMessage.wrappedSessionKey() == null)
+                endpoint.send(sender, new SessionKeyExchangeMessage(publicKey,
+                        wrapSessionKey(sessionKey, keyExchangeMessage.publicKey())));
+            // publish the key only after it was sent, so concurrent senders can not use it too early
+            if (newSession)
+                outboundSessionKeys.put(sender, sessionKey);
+
+            removeCachedPayloads(sender).forEach(cachedMessage -> send(sender, cachedMessage));
             return true;
         }
         return false;
     }
 
+    private SecretKey generateSessionKey() {
+        synchronized (sessionKeyGenerator) {
+            return sessionKeyGenerator.generateKey();
+        }
+    }
+
+    private byte[] wrapSessionKey(SecretKey sessionKey, PublicKey receiverPublicKey) {
+        try {
+            return newCipher(ASYMMETRIC_ALGORITHM, Cipher.WRAP_MODE, receiverPublicKey).wrap(sessionKey);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private SecretKey unwrapSessionKey(byte[] wrappedSessionKey) {
+        try {
+            return (SecretKey) unwrapCipher.get().unwrap(wrappedSessionKey, SYMMETRIC_ALGORITHM, Cipher.SECRET_KEY);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private WireWriter serialize(Serializable payload) throws IOException {
+        WireWriter buffer = encodeBuffer.get();
+        buffer.reset();
+        WireCodec.encode(payload, buffer);
+        return buffer;
+    }
+
+    private byte[] encryptAsymmetric(InetSocketAddress receiver, WireWriter plain) throws GeneralSecurityException {
+        final PublicKey receiverPublicKey = knownPublicKeys.get(receiver);
+        final Map<InetSocketAddress, ReceiverCipher> ciphers = encryptCiphers.get();
+        ReceiverCipher receiverCipher = ciphers.get(receiver);
+        // the receiver may have restarted with a new key pair
+        if (receiverCipher == null || receiverCipher.publicKey() != receiverPublicKey) {
+            // initializing a cipher is cheap compared to tracking which receivers are gone
+            if (ciphers.size() >= MAX_RECEIVER_CIPHERS)
+                ciphers.clear();
+            receiverCipher = new ReceiverCipher(receiverPublicKey,
+                    newCipher(ASYMMETRIC_ALGORITHM, Cipher.ENCRYPT_MODE, receiverPublicKey));
+            ciphers.put(receiver, receiverCipher);
+        }
+        // doFinal resets the cipher to its initialized state, so it can be reused without another init
+        return receiverCipher.cipher().doFinal(plain.array(), 0, plain.size());
+    }
+
+    private byte[] encryptSession(InetSocketAddress receiver, WireWriter plain) throws GeneralSecurityException {
+        // GCM forbids reusing a key/IV pair, so the session cipher is initialized for every message
+        Cipher cipher = sessionCipher.get();
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        random.nextBytes(iv);
+        cipher.init(Cipher.ENCRYPT_MODE, outboundSessionKeys.get(receiver), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+
+        byte[] encrypted = new byte[GCM_IV_LENGTH + cipher.getOutputSize(plain.size())];
+        System.arraycopy(iv, 0, encrypted, 0, GCM_IV_LENGTH);
+        cipher.doFinal(plain.array(), 0, plain.size(), encrypted, GCM_IV_LENGTH);
+        return encrypted;
+    }
+
+    private int decryptAsymmetric(byte[] encrypted, byte[] decrypted) throws GeneralSecurityException {
+        return decryptCipher.get().doFinal(encrypted, 0, encrypted.length, decrypted, 0);
+    }
+
+    private int decryptSession(InetSocketAddress sender, byte[] encrypted, byte[] decrypted)
+            throws GeneralSecurityException {
+        SecretKey sessionKey = inboundSessionKeys.get(sender);
+        if (sessionKey == null)
+            return -1;
+        Cipher cipher = sessionCipher.get();
+        cipher.init(Cipher.DECRYPT_MODE, sessionKey, new GCMParameterSpec(GCM_TAG_LENGTH, encrypted, 0, GCM_IV_LENGTH));
+        return cipher.doFinal(encrypted, GCM_IV_LENGTH, encrypted.length - GCM_IV_LENGTH, decrypted, 0);
+    }
+
+    /*
+     * Returns null for messages which can not be decrypted or decoded, a broken datagram must not stop the receiver.
+     */
     private Message decrypt(Message message) {
+        if (!(message.getPayload() instanceof byte[] encryptedPayload)) {
+            System.err.println("Dropped unencrypted message from " + message.getSender());
+            return null;
+        }
+        // decrypted plaintext is never longer than the ciphertext
+        byte[] decryptedPayload = decodeBuffer.get().array(encryptedPayload.length);
+        int decryptedLength;
+        try {
+            decryptedLength = switch (mode) {
+                case RSA -> decryptAsymmetric(encryptedPayload, decryptedPayload);
+                case SESSION -> decryptSession(message.getSender(), encryptedPayload, decryptedPayload);
+            };
+        } catch (GeneralSecurityException e) {
+            System.err.println("Dropped message from " + message.getSender() + " which failed to decrypt: " + e);
+            // e.g. the peer restarted with a new session key, asking makes the peer send its current one
+            if (mode == Mode.SESSION)
+                endpoint.send(message.getSender(), new SessionKeyExchangeMessage(publicKey, null));
+            return null;
+        }
+        if (decryptedLength < 0) {
+            System.err.println("Dropped message without session key from " + message.getSender());
+            // the key exchange carrying the key got lost, asking again makes the peer send it once more
+            endpoint.send(message.getSender(), new SessionKeyExchangeMessage(publicKey, null));
+            return null;
+        }
+
         try {
-            byte[] decryptedPayload = decryptCipher.doFinal(
-                    Base64.getDecoder().decode(
-                            message.getPayload().toString().getBytes()
-                    )
-            );
-            ByteArrayInputStream bais = new ByteArrayInputStream(decryptedPayload);
-            ObjectInputStream is = new ObjectInputStream(bais);
             return new Message(
-                    (Serializable) is.readObject(),
+                    WireCodec.decode(decryptedPayload, 0, decryptedLength),
                     message.getSender()
             );
-        } catch (IllegalBlockSizeException | BadPaddingException | IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
+            System.err.println("Dropped message from " + message.getSender() + " which failed to decode: " + e);
+            return null;
+        }
+    }
+
+    private static Cipher newCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Cipher newCipher(String transformation, int opmode, Key key) {
+        try {
+            Cipher cipher = Cipher.getInstance(transformation);
+            cipher.init(opmode, key);
+            return cipher;
+        } catch (GeneralSecurityException e) {
             throw new RuntimeException(e);
         }
     }
+
+    private record ReceiverCipher(PublicKey publicKey, Cipher cipher) {
+    }
 }
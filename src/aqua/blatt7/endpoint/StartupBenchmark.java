@@ -0,0 +1,49 @@
+package aqua.blatt7.endpoint;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.util.function.Supplier;
+
+/*
+ * Compares the construction time of SecureEndpoints with freshly generated, persisted and pre-generated key pairs.
+ * Usage: StartupBenchmark [RSA|SESSION] [endpoints]
+ */
+
+public class StartupBenchmark {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final SecureEndpoint.Mode mode = args.length > 0 ? SecureEndpoint.Mode.valueOf(args[0]) : SecureEndpoint.Mode.SESSION;
+        final int endpoints = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final int keySize = SecureEndpoint.keySize(mode);
+
+        System.out.printf("%d endpoints in mode %s with %d bit keys%n", endpoints, mode, keySize);
+
+        measure("cold (generated)", mode, endpoints, () -> KeyPairs.generate(keySize));
+
+        final Path keyStore = Files.createTempDirectory("aqua-keystore");
+        KeyPairs.loadOrGenerate(keyStore, "benchmark", keySize);
+        measure("warm (key store)", mode, endpoints, () -> KeyPairs.loadOrGenerate(keyStore, "benchmark", keySize));
+
+        try (var pool = new KeyPairPool(keySize, endpoints, Runtime.getRuntime().availableProcessors())) {
+            while (pool.available() < endpoints)
+                Thread.sleep(100);
+            measure("warm (pool)", mode, endpoints, pool::take);
+        }
+    }
+
+    private static void measure(String name, SecureEndpoint.Mode mode, int endpoints, Supplier<KeyPair> keyPairs) {
+        long max = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < endpoints; i++) {
+            final long before = System.nanoTime();
+            final SecureEndpoint endpoint = new SecureEndpoint((Integer) null, mode, keyPairs.get());
+            max = Math.max(max, System.nanoTime() - before);
+            endpoint.close();
+        }
+        final long total = System.nanoTime() - start;
+        System.out.printf("%-18s total %8.1f ms, mean %7.2f ms, max %7.2f ms%n",
+                name, total / 1e6, total / 1e6 / endpoints, max / 1e6);
+    }
+}
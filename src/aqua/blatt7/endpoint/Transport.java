@@ -0,0 +1,56 @@
+package aqua.blatt7.endpoint;
+
+import messaging.Endpoint;
+
+/*
+ * Selects the endpoint implementation below SecureEndpoint, configured by the system property aqua.transport.
+ * LOOPBACK connects only the endpoints of one process, see LoopbackNetwork.
+ *
+ * NIO endpoints send Java serialization like messaging.Endpoint, so they talk to peers on either transport. With
+ * the system property aqua.nio.wirecodec they send the compact WireCodec format instead, which only NIO,
+ * multiplexed and loopback endpoints can read.
+ */
+
+public enum Transport {
+    DATAGRAM_SOCKET,
+    NIO,
+    LOOPBACK;
+
+    public static final String TRANSPORT_PROPERTY = "aqua.transport";
+    public static final String WIRE_CODEC_PROPERTY = "aqua.nio.wirecodec";
+    // the receive buffer of messaging.Endpoint, which cuts off longer datagrams
+    public static final int MESSAGING_ENDPOINT_BUFFER_SIZE = 1024;
+
+    public static Transport configured() {
+        return valueOf(System.getProperty(TRANSPORT_PROPERTY, DATAGRAM_SOCKET.name()).toUpperCase());
+    }
+
+    public Endpoint open(Integer port) {
+        return switch (this) {
+            case DATAGRAM_SOCKET -> port != null ? new Endpoint(port) : new Endpoint();
+            case NIO -> new NioEndpoint(port,
+                    Integer.getInteger("aqua.nio.rcvbuf", NioEndpoint.DEFAULT_SOCKET_BUFFER_SIZE),
+                    Integer.getInteger("aqua.nio.sndbuf", NioEndpoint.DEFAULT_SOCKET_BUFFER_SIZE),
+                    javaSerialization());
+            case LOOPBACK -> LoopbackNetwork.shared().open(port);
+        };
+    }
+
+    /*
+     * Whether payloads are sent in Java serialization, which every endpoint reads, instead of the WireCodec format.
+     */
+    public boolean javaSerialization() {
+        return switch (this) {
+            case DATAGRAM_SOCKET -> true;
+            case NIO -> !Boolean.getBoolean(WIRE_CODEC_PROPERTY);
+            case LOOPBACK -> false;
+        };
+    }
+
+    /*
+     * The longest datagram every peer on this transport receives completely.
+     */
+    public int maxDatagramSize() {
+        return javaSerialization() ? MESSAGING_ENDPOINT_BUFFER_SIZE : NioEndpoint.MAX_DATAGRAM_SIZE;
+    }
+}
@@ -0,0 +1,71 @@
+package aqua.blatt7.endpoint;
+
+import aqua.blatt1.common.msgtypes.Token;
+import messaging.Endpoint;
+import messaging.Message;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Measures how many unencrypted datagrams per second one receiver thread takes from each transport.
+ * Usage: TransportBenchmark [messages]
+ */
+
+public class TransportBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        final int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int port = 47110;
+        for (Transport transport : Transport.values()) {
+            // first pass warms up, second pass measures
+            for (int pass = 0; pass < 2; pass++, port += 2)
+                measure(transport, port, messages, pass == 1);
+        }
+    }
+
+    private static void measure(Transport transport, int port, int messages, boolean print) throws InterruptedException {
+        final Endpoint receiver = transport.open(port);
+        final Endpoint sender = transport.open(port + 1);
+        final InetSocketAddress receiverAddress = new InetSocketAddress("localhost", port);
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicBoolean stopped = new AtomicBoolean();
+
+        Thread receiverThread = new Thread(() -> {
+            List<Message> batch = new ArrayList<>();
+            while (received.get() < messages && !stopped.get()) {
+                if (receiver instanceof NioEndpoint nioEndpoint) {
+                    batch.clear();
+                    received.addAndGet(nioEndpoint.receiveBatch(batch, 64, 100));
+                } else if (receiver.nonBlockingReceive() != null) {
+                    received.incrementAndGet();
+                }
+            }
+        });
+        receiverThread.start();
+
+        final long start = System.nanoTime();
+        final Token token = new Token();
+        for (int i = 0; i < messages; i++) {
+            sender.send(receiverAddress, token);
+            // keep the sender from simply overflowing the receive buffer
+            if (i % 64 == 0)
+                Thread.yield();
+        }
+        receiverThread.join(5000);
+        stopped.set(true);
+        receiverThread.join();
+        final long nanos = System.nanoTime() - start;
+
+        if (print)
+            System.out.printf("%-16s received %7d/%d in %6.0f ms, %9.0f msg/s%n", transport, received.get(), messages,
+                    nanos / 1e6, received.get() / (nanos / 1e9));
+        if (receiver instanceof NioEndpoint nioEndpoint)
+            nioEndpoint.close();
+        if (sender instanceof NioEndpoint nioEndpoint)
+            nioEndpoint.close();
+    }
+}